@@ -27,9 +27,9 @@ import com.slack.api.model.event.Event;
 import com.slack.api.model.event.MessageChangedEvent;
 import com.slack.api.model.event.MessageEvent;
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
@@ -38,7 +38,6 @@ import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.core.NestedExceptionUtils;
-import org.springframework.util.MultiValueMap;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
@@ -53,13 +52,9 @@ public class Utils {
 
   private Utils() {}
 
-  static <K, V> Map<K, List<V>> toMultiMap(MultiValueMap<K, V> multivalueMap) {
-    return multivalueMap.entrySet().stream()
-        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-  }
-
   /**
    * Parses an incoming {@link ServerRequest} and its body into a Slack Bolt {@link Request} object.
+   * The request query parameters and headers are handed over as views, no copies are made.
    *
    * @param requestParser The {@link SlackRequestParser} instance to use for parsing.
    * @param request The incoming HTTP {@link ServerRequest}.
@@ -72,10 +67,11 @@ public class Utils {
         SlackRequestParser.HttpRequest.builder()
             .requestUri(request.requestPath().toString())
             .requestBody(body)
-            .queryString(toMultiMap(request.queryParams()))
+            .queryString(request.queryParams())
             .remoteAddress(
-                request.headers().header("X-Forwarded-For").stream().findFirst().orElse(""))
-            .headers(new RequestHeaders(toMultiMap(request.headers().asHttpHeaders())))
+                Optional.ofNullable(request.headers().asHttpHeaders().getFirst("X-Forwarded-For"))
+                    .orElse(""))
+            .headers(new RequestHeaders(request.headers().asHttpHeaders()))
             .build());
   }
 
@@ -169,6 +165,37 @@ public class Utils {
     };
   }
 
+  /**
+   * Extracts the timestamp of the message carried by a Slack {@link Event}. For {@link
+   * MessageChangedEvent}, it returns the {@code ts} of the edited message.
+   *
+   * @param event The Slack event ({@link AppMentionEvent}, {@link MessageEvent}, or {@link
+   *     MessageChangedEvent}).
+   * @return The message timestamp string.
+   * @throws IllegalArgumentException if the event type is not supported for timestamp extraction.
+   */
+  public static String messageTs(Event event) {
+    return switch (event) {
+      case AppMentionEvent mention -> mention.getTs();
+      case MessageEvent message -> message.getTs();
+      case MessageChangedEvent change -> change.getMessage().getTs();
+      default ->
+          throw new IllegalArgumentException(
+              "Retrieve message timestamp failed. Event type is not supported: " + event.getType());
+    };
+  }
+
+  /**
+   * Checks if a Slack message timestamp is later than another one.
+   *
+   * @param ts The timestamp to check.
+   * @param other The timestamp to compare with.
+   * @return {@code true} if {@code ts} is later than {@code other}.
+   */
+  public static boolean isAfter(String ts, String other) {
+    return new BigDecimal(ts).compareTo(new BigDecimal(other)) > 0;
+  }
+
   /**
    * Extracts the channel ID from a Slack {@link Event}.
    *
@@ -188,6 +215,17 @@ public class Utils {
     };
   }
 
+  /**
+   * Builds the identifier of a conversation, which in Slack is a thread within a channel.
+   *
+   * @param channelId The ID of the channel.
+   * @param threadTs The timestamp of the thread.
+   * @return The conversation identifier string.
+   */
+  public static String conversationId(String channelId, String threadTs) {
+    return channelId + ":" + threadTs;
+  }
+
   /**
    * Converts a Slack message (text content and author) into a Spring AI {@link Message} object. If
    * the {@code userId} matches the {@code botId}, it's considered an {@link AssistantMessage}.
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.example.gcp.slack.claude.common.logging;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, non-blocking asynchronous appender keeping track of the events it does not deliver.
+ * Events below WARN are discarded once the queue goes over the discarding threshold and, since the
+ * appender is expected to be configured with {@code neverBlock}, any event is dropped when the
+ * queue is full. Both situations are counted, the counts are exposed as metrics by {@link
+ * org.example.gcp.slack.claude.config.LoggingConfig}.
+ */
+public class CountingAsyncAppender extends AsyncAppender {
+  private final AtomicLong discarded = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    var remaining = getRemainingCapacity();
+    if (remaining < getDiscardingThreshold() && isDiscardable(event)) {
+      discarded.incrementAndGet();
+    } else if (remaining == 0 && isNeverBlock()) {
+      dropped.incrementAndGet();
+    }
+    super.append(event);
+  }
+
+  /**
+   * @return The number of low level events discarded while the queue was over its threshold.
+   */
+  public long getDiscardedCount() {
+    return discarded.get();
+  }
+
+  /**
+   * @return The number of events dropped because the queue was full.
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+}
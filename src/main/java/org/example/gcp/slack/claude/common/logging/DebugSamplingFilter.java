@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.example.gcp.slack.claude.common.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+
+/**
+ * Per-event sampling of high frequency debug logs. The sampling decision is taken once per Slack
+ * event and carried in the {@link #SAMPLED_KEY} MDC field, debug and trace logs of events not
+ * sampled are denied before any logging event gets created.
+ */
+public class DebugSamplingFilter extends TurboFilter {
+  public static final String SAMPLED_KEY = "log_sampled";
+
+  @Override
+  public FilterReply decide(
+      Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+    if (level.isGreaterOrEqual(Level.INFO)) {
+      return FilterReply.NEUTRAL;
+    }
+    return "false".equals(MDC.get(SAMPLED_KEY)) ? FilterReply.DENY : FilterReply.NEUTRAL;
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.example.gcp.slack.claude.config;
+
+import ch.qos.logback.classic.LoggerContext;
+import io.micrometer.context.ContextRegistry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.List;
+import java.util.stream.Stream;
+import org.example.gcp.slack.claude.common.logging.CountingAsyncAppender;
+import org.example.gcp.slack.claude.common.logging.DebugSamplingFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Logging pipeline configuration. Registers the structured MDC fields so they are propagated
+ * through the Reactor context (automatic context propagation is enabled by the {@code
+ * spring.reactor.context-propagation} property) and exposes the asynchronous appenders delivery
+ * counters as metrics.
+ */
+@Configuration
+public class LoggingConfig {
+  public static final String EVENT_ID_KEY = "event_id";
+  public static final String CHANNEL_KEY = "channel";
+  public static final String THREAD_TS_KEY = "thread_ts";
+  public static final List<String> MDC_KEYS =
+      List.of(EVENT_ID_KEY, CHANNEL_KEY, THREAD_TS_KEY, DebugSamplingFilter.SAMPLED_KEY);
+
+  public LoggingConfig() {
+    MDC_KEYS.forEach(
+        key ->
+            ContextRegistry.getInstance()
+                .registerThreadLocalAccessor(
+                    key, () -> MDC.get(key), value -> MDC.put(key, value), () -> MDC.remove(key)));
+  }
+
+  @Bean
+  public MeterBinder asyncLoggingMetrics() {
+    return registry ->
+        asyncAppenders()
+            .forEach(
+                appender -> {
+                  FunctionCounter.builder(
+                          "logging.events.discarded",
+                          appender,
+                          CountingAsyncAppender::getDiscardedCount)
+                      .tag("appender", appender.getName())
+                      .register(registry);
+                  FunctionCounter.builder(
+                          "logging.events.dropped",
+                          appender,
+                          CountingAsyncAppender::getDroppedCount)
+                      .tag("appender", appender.getName())
+                      .register(registry);
+                });
+  }
+
+  static Stream<CountingAsyncAppender> asyncAppenders() {
+    if (!(LoggerFactory.getILoggerFactory() instanceof LoggerContext context)) {
+      return Stream.empty();
+    }
+    var appenders = Stream.<CountingAsyncAppender>builder();
+    context
+        .getLogger(Logger.ROOT_LOGGER_NAME)
+        .iteratorForAppenders()
+        .forEachRemaining(
+            appender -> {
+              if (appender instanceof CountingAsyncAppender counting) {
+                appenders.add(counting);
+              }
+            });
+    return appenders.build();
+  }
+}
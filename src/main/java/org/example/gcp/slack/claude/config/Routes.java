@@ -16,6 +16,8 @@
 package org.example.gcp.slack.claude.config;
 
 import org.example.gcp.slack.claude.handlers.SlackResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.reactive.function.server.RequestPredicates;
@@ -27,7 +29,19 @@ import org.springframework.web.reactive.function.server.RouterFunctions;
 public class Routes {
 
   @Bean
+  @ConditionalOnProperty(name = "slack.mode", havingValue = "http", matchIfMissing = true)
   public RouterFunction<?> chatResource(SlackResource handler) {
     return RouterFunctions.route(RequestPredicates.POST("/chat"), handler::chatInteraction);
   }
+
+  @Bean
+  @ConditionalOnProperty(name = "slack.oauth.enabled", havingValue = "true")
+  public RouterFunction<?> oauthResource(
+      SlackResource handler,
+      @Value("${slack.oauth.install-path}") String installPath,
+      @Value("${slack.oauth.redirect-uri-path}") String redirectUriPath) {
+    return RouterFunctions.route(
+        RequestPredicates.GET(installPath).or(RequestPredicates.GET(redirectUriPath)),
+        handler::oauthInteraction);
+  }
 }
@@ -17,12 +17,20 @@ package org.example.gcp.slack.claude.config;
 
 import com.slack.api.bolt.App;
 import com.slack.api.bolt.AppConfig;
+import com.slack.api.bolt.service.InstallationService;
+import com.slack.api.bolt.service.OAuthStateService;
+import com.slack.api.bolt.service.builtin.FileInstallationService;
+import com.slack.api.bolt.service.builtin.FileOAuthStateService;
 import com.slack.api.bolt.util.SlackRequestParser;
 import com.slack.api.model.event.AppMentionEvent;
 import com.slack.api.model.event.MessageChangedEvent;
 import com.slack.api.model.event.MessageEvent;
+import java.time.Duration;
+import org.example.gcp.slack.claude.handlers.CachingInstallationService;
 import org.example.gcp.slack.claude.handlers.SlackEvent;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -35,17 +43,81 @@ public class SlackApp {
   @Value("${slack.signing-secret}")
   private String signingSecret;
 
+  @Value("${slack.oauth.enabled}")
+  private Boolean oauthEnabled;
+
+  @Value("${slack.oauth.store-path}")
+  private String installationStorePath;
+
+  @Value("${slack.oauth.cache-ttl}")
+  private Duration installationCacheTtl;
+
+  @Value("${slack.oauth.cache-size}")
+  private Integer installationCacheSize;
+
   @Bean
+  @ConditionalOnProperty(name = "slack.oauth.enabled", havingValue = "false", matchIfMissing = true)
   public AppConfig loadSingleWorkspaceAppConfig() {
-    return AppConfig.builder().singleTeamBotToken(botToken).signingSecret(signingSecret).build();
+    return AppConfig.builder()
+        .singleTeamBotToken(botToken)
+        .signingSecret(signingSecret)
+        // signatures are verified over the raw request body by the ingress
+        .requestVerificationEnabled(false)
+        .build();
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "slack.oauth.enabled", havingValue = "true")
+  public AppConfig loadMultiWorkspaceAppConfig(
+      @Value("${slack.oauth.client-id}") String clientId,
+      @Value("${slack.oauth.client-secret}") String clientSecret,
+      @Value("${slack.oauth.scope}") String scope,
+      @Value("${slack.oauth.install-path}") String installPath,
+      @Value("${slack.oauth.redirect-uri-path}") String redirectUriPath) {
+    return AppConfig.builder()
+        .clientId(clientId)
+        .clientSecret(clientSecret)
+        .scope(scope)
+        .oauthInstallPath(installPath)
+        .oauthRedirectUriPath(redirectUriPath)
+        .signingSecret(signingSecret)
+        // signatures are verified over the raw request body by the ingress
+        .requestVerificationEnabled(false)
+        .build();
   }
 
+  /**
+   * Initializes the Slack Bolt application. When OAuth is enabled, the installations are looked up
+   * through a cache in front of the installation store, which is the {@link InstallationService}
+   * bean when one is provided (for example a shared store used by all the instances) or a local
+   * file based one otherwise. The OAuth state store is chosen the same way, from an {@link
+   * OAuthStateService} bean or a local file based one; since the install and redirect requests may
+   * land on different instances, the local store path must be shared between them.
+   */
   @Bean
-  public App initSlackApp(AppConfig appConfig, SlackEvent handler) {
-    return new App(appConfig)
-        .event(AppMentionEvent.class, handler::mention)
-        .event(MessageEvent.class, handler::threadMessage)
-        .event(MessageChangedEvent.class, handler::threadMessageChange);
+  public App initSlackApp(
+      AppConfig appConfig,
+      SlackEvent handler,
+      ObjectProvider<InstallationService> installationServiceProvider,
+      ObjectProvider<OAuthStateService> oauthStateServiceProvider) {
+    var app =
+        new App(appConfig)
+            .event(AppMentionEvent.class, handler::mention)
+            .event(MessageEvent.class, handler::threadMessage)
+            .event(MessageChangedEvent.class, handler::threadMessageChange);
+    if (oauthEnabled) {
+      app.asOAuthApp(true);
+      app.service(
+          new CachingInstallationService(
+              installationServiceProvider.getIfAvailable(
+                  () -> new FileInstallationService(appConfig, installationStorePath)),
+              installationCacheTtl,
+              installationCacheSize));
+      app.service(
+          oauthStateServiceProvider.getIfAvailable(
+              () -> new FileOAuthStateService(appConfig, installationStorePath)));
+    }
+    return app;
   }
 
   @Bean
@@ -26,6 +26,7 @@ import org.springframework.ai.chat.prompt.SystemPromptTemplate;
 import org.springframework.ai.mcp.client.autoconfigure.NamedClientMcpTransport;
 import org.springframework.ai.mcp.client.autoconfigure.properties.McpClientCommonProperties;
 import org.springframework.ai.mcp.client.autoconfigure.properties.McpSseClientProperties;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -46,8 +47,15 @@ public class SpringAiConfig {
       """;
 
   @Bean
-  public SystemPromptTemplate initSystemTemplate() {
-    return new SystemPromptTemplate(systemText);
+  public SystemPromptTemplate initSystemTemplate(
+      @Value("${claude.generation.stop-marker}") String stopMarker) {
+    return new SystemPromptTemplate(
+        stopMarker.isEmpty()
+            ? systemText
+            : systemText
+                + "Once the request is fully answered, write "
+                + stopMarker
+                + " and do not add closing remarks.\n");
   }
 
   @Bean
@@ -79,7 +87,7 @@ public class SpringAiConfig {
                     .build())
         .map(
             client -> {
-              client.initialize().block(); 
+              client.initialize().block();
               return client;
             })
         .toList();
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.example.gcp.slack.claude.handlers;
+
+import com.slack.api.bolt.Initializer;
+import com.slack.api.bolt.model.Bot;
+import com.slack.api.bolt.model.Installer;
+import com.slack.api.bolt.service.InstallationService;
+import com.slack.api.model.block.LayoutBlock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Caching decorator for a Slack Bolt {@link InstallationService}. Bots and installers found in the
+ * underlying store, which can be a local file based one or a shared one, are kept in a bounded
+ * in-memory cache with time based eviction, so processing events does not require a store lookup
+ * each time. Entries are invalidated when installations or bots are saved or deleted, and every
+ * other operation is forwarded to the underlying store.
+ */
+public class CachingInstallationService implements InstallationService {
+  private final InstallationService delegate;
+  private final Duration ttl;
+  private final Map<String, Cached<Bot>> bots;
+  private final Map<String, Cached<Installer>> installers;
+
+  public CachingInstallationService(InstallationService delegate, Duration ttl, int capacity) {
+    this.delegate = delegate;
+    this.ttl = ttl;
+    this.bots = boundedMap(capacity);
+    this.installers = boundedMap(capacity);
+  }
+
+  static <V> Map<String, V> boundedMap(int capacity) {
+    return Collections.synchronizedMap(
+        new LinkedHashMap<String, V>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > capacity;
+          }
+        });
+  }
+
+  static String key(String... parts) {
+    return Arrays.stream(parts).map(String::valueOf).collect(Collectors.joining("/"));
+  }
+
+  <V> V cached(Map<String, Cached<V>> cache, String key, Supplier<V> loader) {
+    var now = System.currentTimeMillis();
+    var entry = cache.get(key);
+    if (entry != null && entry.expiresAt() > now) {
+      return entry.value();
+    }
+    var value = loader.get();
+    // missing installations are not cached, so new installs are visible right away
+    if (value != null) {
+      cache.put(key, new Cached<>(value, now + ttl.toMillis()));
+    } else {
+      cache.remove(key);
+    }
+    return value;
+  }
+
+  void invalidate(String enterpriseId, String teamId) {
+    var team = key(enterpriseId, teamId);
+    bots.remove(team);
+    synchronized (installers) {
+      installers.keySet().removeIf(key -> key.startsWith(team + "/"));
+    }
+  }
+
+  @Override
+  public Initializer initializer() {
+    return delegate.initializer();
+  }
+
+  @Override
+  public boolean isHistoricalDataEnabled() {
+    return delegate.isHistoricalDataEnabled();
+  }
+
+  @Override
+  public void setHistoricalDataEnabled(boolean isHistoricalDataEnabled) {
+    delegate.setHistoricalDataEnabled(isHistoricalDataEnabled);
+  }
+
+  @Override
+  public void saveInstallerAndBot(Installer installer) throws Exception {
+    delegate.saveInstallerAndBot(installer);
+    invalidate(installer.getEnterpriseId(), installer.getTeamId());
+  }
+
+  @Override
+  public void saveBot(Bot bot) throws Exception {
+    delegate.saveBot(bot);
+    invalidate(bot.getEnterpriseId(), bot.getTeamId());
+  }
+
+  @Override
+  public void deleteBot(Bot bot) throws Exception {
+    delegate.deleteBot(bot);
+    invalidate(bot.getEnterpriseId(), bot.getTeamId());
+  }
+
+  @Override
+  public void deleteInstaller(Installer installer) throws Exception {
+    delegate.deleteInstaller(installer);
+    invalidate(installer.getEnterpriseId(), installer.getTeamId());
+  }
+
+  @Override
+  public Bot findBot(String enterpriseId, String teamId) {
+    return cached(bots, key(enterpriseId, teamId), () -> delegate.findBot(enterpriseId, teamId));
+  }
+
+  @Override
+  public Installer findInstaller(String enterpriseId, String teamId, String userId) {
+    return cached(
+        installers,
+        key(enterpriseId, teamId, userId),
+        () -> delegate.findInstaller(enterpriseId, teamId, userId));
+  }
+
+  @Override
+  public void deleteAll(String enterpriseId, String teamId) {
+    delegate.deleteAll(enterpriseId, teamId);
+    invalidate(enterpriseId, teamId);
+  }
+
+  @Override
+  public String getInstallationGuideText(String enterpriseId, String teamId, String userId) {
+    return delegate.getInstallationGuideText(enterpriseId, teamId, userId);
+  }
+
+  @Override
+  public List<LayoutBlock> getInstallationGuideBlocks(
+      String enterpriseId, String teamId, String userId) {
+    return delegate.getInstallationGuideBlocks(enterpriseId, teamId, userId);
+  }
+
+  record Cached<V>(V value, long expiresAt) {}
+}
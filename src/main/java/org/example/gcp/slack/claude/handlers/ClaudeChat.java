@@ -15,19 +15,34 @@
  */
 package org.example.gcp.slack.claude.handlers;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.modelcontextprotocol.client.McpAsyncClient;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.chat.prompt.SystemPromptTemplate;
 import org.springframework.ai.mcp.AsyncMcpToolCallbackProvider;
+import org.springframework.ai.tool.ToolCallback;
 import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 /**
  * Handles interactions with the Claude AI model. This class is responsible for managing the
@@ -36,21 +51,50 @@ import reactor.core.publisher.Mono;
  */
 @Component
 public class ClaudeChat {
+  private static final Logger LOG = LoggerFactory.getLogger(ClaudeChat.class);
+
   private final ChatClient.Builder chatClientBuilder;
   private final ObjectProvider<List<McpAsyncClient>> mcpClientListProvider;
   private final SystemPromptTemplate systemPrompt;
+  private final ModelRouter router;
+  private final Integer outputCeiling;
+  private final MeterRegistry registry;
 
   public ClaudeChat(
       ChatClient.Builder chatClientBuilder,
       ObjectProvider<List<McpAsyncClient>> mcpClientListProvider,
-      SystemPromptTemplate systemPrompt) {
+      SystemPromptTemplate systemPrompt,
+      ModelRouter router,
+      @Value("${claude.generation.output-ceiling}") Integer outputCeiling,
+      MeterRegistry registry) {
     this.chatClientBuilder = chatClientBuilder;
     this.mcpClientListProvider = mcpClientListProvider;
     this.systemPrompt = systemPrompt;
+    this.router = router;
+    this.outputCeiling = outputCeiling;
+    this.registry = registry;
   }
 
   Mono<List<McpAsyncClient>> prepareClients() {
-    return Mono.fromCallable(mcpClientListProvider::getObject);
+    // client initialization blocks until the MCP handshake completes
+    return Mono.fromCallable(mcpClientListProvider::getObject)
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  Mono<ToolCallback[]> prepareTools(List<McpAsyncClient> clients) {
+    // tool listing blocks on each of the clients
+    return Mono.fromCallable(() -> new AsyncMcpToolCallbackProvider(clients).getToolCallbacks())
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  Prompt preparePrompt(String message, List<Message> messages) {
+    return new Prompt(
+        Stream.of(
+                List.<Message>of(new UserMessage(message)),
+                messages,
+                List.of(systemPrompt.createMessage()))
+            .flatMap(List::stream)
+            .toList());
   }
 
   Mono<Boolean> cleanup(List<McpAsyncClient> clients) {
@@ -61,37 +105,132 @@ public class ClaudeChat {
         });
   }
 
+  /**
+   * Prepares everything needed before the first request to the model. The thread history retrieval,
+   * the MCP clients acquisition and the tool listing run concurrently, so the wait is bound by the
+   * slowest of them instead of their sum. In case any of the stages fails, the already acquired
+   * clients are cleaned up.
+   *
+   * @param message The current user message to send to the AI.
+   * @param history A {@link Mono} emitting the previous messages in the conversation.
+   * @return A {@link Mono} emitting the clients, tools and prompt ready to be used.
+   */
+  Mono<PreparedRequest> prepare(String message, Mono<List<Message>> history) {
+    return Mono.defer(
+        () -> {
+          var start = System.nanoTime();
+          var clients = prepareClients().timed().cache();
+          var tools = clients.flatMap(timedClients -> prepareTools(timedClients.get()).timed());
+          return Mono.zip(history.timed(), clients, tools)
+              .map(
+                  stages -> {
+                    var promptStart = System.nanoTime();
+                    var prompt = preparePrompt(message, stages.getT1().get());
+                    var timings =
+                        new StageTimings(
+                            stages.getT1().elapsed().toMillis(),
+                            stages.getT2().elapsed().toMillis(),
+                            stages.getT3().elapsed().toMillis(),
+                            (System.nanoTime() - promptStart) / 1_000_000,
+                            (System.nanoTime() - start) / 1_000_000);
+                    LOG.info("Request preparation completed: {}", timings);
+                    return new PreparedRequest(
+                        stages.getT2().get(),
+                        stages.getT3().get(),
+                        stages.getT1().get(),
+                        prompt,
+                        timings);
+                  })
+              .onErrorResume(
+                  ex ->
+                      clients
+                          .flatMap(timedClients -> cleanup(timedClients.get()))
+                          .onErrorComplete()
+                          .then(Mono.error(ex)));
+        });
+  }
+
   /**
    * Generates a response from the Claude AI model based on the given message and message history.
    *
    * <p>Manages the lifecycle of MCP clients for this specific generation request, ensuring they are
-   * initialized before use and cleaned up afterwards.
+   * initialized before use and cleaned up afterwards. The history is retrieved concurrently with
+   * the clients initialization, see {@link #prepare(String, Mono)}. The model used for the
+   * generation is selected by the {@link ModelRouter} once the history is available.
    *
+   * <p>The streamed text goes through an {@link OutputGuard}, once the output ceiling is reached
+   * the upstream generation is cancelled, so no more tokens are produced for text that will not be
+   * sent. Generations ended by the stop marker are reported by the model through the finish reason.
+   *
+   * @param conversationId The identifier of the conversation, used for routing decisions.
    * @param message The current user message to send to the AI.
-   * @param messages A list of previous messages in the conversation history.
+   * @param history A {@link Mono} emitting the previous messages in the conversation history.
    * @return A Flux<String> that streams the AI-generated response content.
    */
-  public Flux<String> generate(String message, List<Message> messages) {
+  public Flux<String> generate(String conversationId, String message, Mono<List<Message>> history) {
     return Flux.usingWhen(
-        // McpClients Initialization (resourceAsync)
-        prepareClients(),
-        // MacpClients usage for Chat client as tools (resourceClosure)
-        mcpAsyncClients ->
-            this.chatClientBuilder
-                .clone()
-                .defaultToolCallbacks(new AsyncMcpToolCallbackProvider(mcpAsyncClients))
-                .build()
-                .prompt(
-                    new Prompt(
-                        Stream.of(
-                                List.<Message>of(new UserMessage(message)),
-                                messages,
-                                List.of(systemPrompt.createMessage()))
-                            .flatMap(List::stream)
-                            .toList()))
-                .stream()
-                .content(),
+        // McpClients initialization, tool listing and history retrieval (resourceAsync)
+        prepare(message, history),
+        // McpClients usage for Chat client as tools (resourceClosure)
+        prepared -> {
+          var route = router.route(conversationId, message, prepared.history());
+          var guard = new OutputGuard(outputCeiling);
+          var finishReason = new AtomicReference<>("complete");
+          return router
+              .record(
+                  route,
+                  this.chatClientBuilder
+                      .clone()
+                      .defaultToolCallbacks(prepared.tools())
+                      .build()
+                      .prompt(prepared.prompt())
+                      .options(router.options(route))
+                      .stream()
+                      .chatResponse())
+              .doOnNext(response -> finishReason(response).ifPresent(finishReason::set))
+              .map(response -> guard.accept(text(response)))
+              .takeUntil(__ -> guard.isStopped())
+              .filter(StringUtils::hasLength)
+              .doOnComplete(
+                  () ->
+                      Counter.builder("claude.generation.stops")
+                          .tag("route", route.name())
+                          .tag("reason", guard.isStopped() ? "ceiling" : finishReason.get())
+                          .register(registry)
+                          .increment());
+        },
         // McpClients cleanup (asyncCleanup)
-        mcpAsyncClients -> cleanup(mcpAsyncClients));
+        prepared -> cleanup(prepared.clients()));
+  }
+
+  static Optional<String> finishReason(ChatResponse response) {
+    // the Anthropic stop reason, as end_turn, stop_sequence or max_tokens
+    return Optional.ofNullable(response.getResult())
+        .map(Generation::getMetadata)
+        .map(ChatGenerationMetadata::getFinishReason)
+        .filter(StringUtils::hasText)
+        .map(reason -> reason.toLowerCase(Locale.ROOT).replace('_', '-'))
+        .map(reason -> "end-turn".equals(reason) ? "complete" : reason);
+  }
+
+  static String text(ChatResponse response) {
+    return Optional.ofNullable(response.getResult())
+        .map(Generation::getOutput)
+        .map(AssistantMessage::getText)
+        .orElse("");
   }
+
+  record StageTimings(
+      long historyMillis,
+      long clientsMillis,
+      long toolsMillis,
+      long promptMillis,
+      long totalMillis) {}
+
+  record PreparedRequest(
+      List<McpAsyncClient> clients,
+      ToolCallback[] tools,
+      List<Message> history,
+      Prompt prompt,
+      StageTimings timings) {}
 }
@@ -0,0 +1,461 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.example.gcp.slack.claude.handlers;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Embedded, append-only store of conversations, keyed by channel and thread. Conversations are
+ * appended as compact binary snapshots to memory-mapped segment files, and an in-memory index keeps
+ * the location of the latest snapshot of each conversation. The index is rebuilt from the segments
+ * on startup, so a restarted instance (with the store directory on a mounted volume) can skip the
+ * retrieval of the thread history from Slack. Each snapshot keeps the timestamp of the latest Slack
+ * message it covers, so callers can check it is still up to date with the thread.
+ *
+ * <p>Each record is laid out as: {@code int length, long writtenAt, short keyLength, key, short
+ * latestTsLength, latestTs, int messageCount} followed by {@code byte type, int textLength, text}
+ * per message. The record length is written last, so partially written records are ignored when
+ * scanning. When the number of segments exceeds the configured maximum the live, non expired,
+ * snapshots are compacted into new segments and the previous ones are deleted. Compaction keeps the
+ * most recent snapshots that fit in one segment less than the maximum, older ones are evicted, so
+ * the store never grows past the configured size.
+ *
+ * <p>The store directory can be shared by several instances through a mounted volume: each instance
+ * claims its own sub-directory, holding an exclusive file lock on it while the store is open, and a
+ * restarted instance takes over a sub-directory no longer locked by anyone.
+ */
+@Component
+public class ConversationStore implements InitializingBean, DisposableBean {
+  private static final Logger LOG = LoggerFactory.getLogger(ConversationStore.class);
+  private static final String SEGMENT_PREFIX = "conversations-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String INSTANCE_PREFIX = "instance-";
+  private static final String LOCK_FILE = ".lock";
+  private static final byte USER_TYPE = 'U';
+  private static final byte ASSISTANT_TYPE = 'A';
+  private static final byte SYSTEM_TYPE = 'S';
+  private static final byte UNSUPPORTED_TYPE = 0;
+
+  private final boolean enabled;
+  private final Path root;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final Duration ttl;
+  private final MeterRegistry registry;
+  private final Map<String, Location> index = new ConcurrentHashMap<>();
+  private final List<Segment> segments = new ArrayList<>();
+  private Path directory;
+  private FileChannel lockChannel;
+  private Segment active;
+  private long nextSequence;
+
+  public ConversationStore(
+      @Value("${claude.store.enabled}") Boolean enabled,
+      @Value("${claude.store.path}") String directory,
+      @Value("${claude.store.segment-size}") DataSize segmentSize,
+      @Value("${claude.store.max-segments}") Integer maxSegments,
+      @Value("${claude.store.ttl}") Duration ttl,
+      MeterRegistry registry) {
+    this.enabled = enabled;
+    this.root = Path.of(directory);
+    this.segmentSize = Math.toIntExact(segmentSize.toBytes());
+    this.maxSegments = maxSegments;
+    this.ttl = ttl;
+    this.registry = registry;
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    if (enabled) {
+      try {
+        open();
+      } catch (IOException ex) {
+        throw new UncheckedIOException("Problems opening the conversation store", ex);
+      }
+    }
+  }
+
+  /**
+   * Retrieves the latest stored snapshot of a conversation.
+   *
+   * @param conversationId The identifier of the conversation (channel and thread).
+   * @return A {@link Mono} emitting the stored snapshot, or empty if the conversation is not stored
+   *     or it has expired.
+   */
+  public Mono<Snapshot> find(String conversationId) {
+    if (!enabled) {
+      return Mono.empty();
+    }
+    return Mono.fromCallable(() -> read(conversationId))
+        .doOnNext(__ -> lookup("hit"))
+        .switchIfEmpty(Mono.fromRunnable(() -> lookup("miss")));
+  }
+
+  /**
+   * Appends a new snapshot of a conversation, replacing the previous one.
+   *
+   * @param conversationId The identifier of the conversation (channel and thread).
+   * @param latestTs The timestamp of the latest Slack message covered by the snapshot.
+   * @param messages The messages of the conversation.
+   * @return A {@link Mono} emitting {@code true} if the snapshot was stored.
+   */
+  public Mono<Boolean> save(String conversationId, String latestTs, List<Message> messages) {
+    if (!enabled) {
+      return Mono.just(false);
+    }
+    return Mono.fromCallable(() -> write(conversationId, latestTs, messages))
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  @Override
+  public synchronized void destroy() throws IOException {
+    for (var segment : segments) {
+      segment.close();
+    }
+    segments.clear();
+    if (lockChannel != null) {
+      // closing the channel releases the lock
+      lockChannel.close();
+    }
+  }
+
+  void lookup(String result) {
+    registry.counter("conversation.store.lookups", "result", result).increment();
+  }
+
+  synchronized void open() throws IOException {
+    claim();
+    try (var files = Files.list(directory)) {
+      var existing =
+          files
+              .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+              .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+              .sorted()
+              .toList();
+      for (var path : existing) {
+        var segment = Segment.open(path, segmentSize);
+        scan(segment);
+        segments.add(segment);
+        nextSequence = Math.max(nextSequence, sequence(path) + 1);
+      }
+    }
+    if (segments.isEmpty()) {
+      roll();
+    } else {
+      active = segments.getLast();
+    }
+    LOG.info(
+        "Conversation store opened at {} with {} segments and {} conversations.",
+        directory,
+        segments.size(),
+        index.size());
+  }
+
+  /**
+   * Claims the first instance sub-directory of the store not locked by another instance, and keeps
+   * its lock while the store is open.
+   */
+  void claim() throws IOException {
+    for (var slot = 0; ; slot++) {
+      var candidate = root.resolve(String.format("%s%03d", INSTANCE_PREFIX, slot));
+      Files.createDirectories(candidate);
+      var channel =
+          FileChannel.open(
+              candidate.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      FileLock lock;
+      try {
+        lock = channel.tryLock();
+      } catch (OverlappingFileLockException ex) {
+        // already claimed within this process
+        lock = null;
+      }
+      if (lock != null) {
+        directory = candidate;
+        lockChannel = channel;
+        return;
+      }
+      channel.close();
+    }
+  }
+
+  void scan(Segment segment) {
+    var buffer = segment.buffer;
+    var position = 0;
+    while (position + Integer.BYTES <= buffer.capacity()) {
+      var length = buffer.getInt(position);
+      if (length <= 0 || position + Integer.BYTES + length > buffer.capacity()) {
+        break;
+      }
+      var record = buffer.slice(position + Integer.BYTES, length);
+      var writtenAt = record.getLong();
+      // later records override the location of the previous snapshots of the same conversation
+      index.put(readText(record, record.getShort()), new Location(segment, position, writtenAt));
+      position += Integer.BYTES + length;
+    }
+    segment.position = position;
+  }
+
+  Snapshot read(String conversationId) {
+    var location = index.get(conversationId);
+    if (location == null) {
+      return null;
+    }
+    if (isExpired(location, System.currentTimeMillis())) {
+      index.remove(conversationId, location);
+      return null;
+    }
+    var buffer = location.segment().buffer;
+    var record = buffer.slice(location.offset() + Integer.BYTES, buffer.getInt(location.offset()));
+    record.getLong();
+    readText(record, record.getShort());
+    var latestTs = readText(record, record.getShort());
+    var count = record.getInt();
+    var messages = new ArrayList<Message>(count);
+    for (var i = 0; i < count; i++) {
+      var type = record.get();
+      var text = readText(record, record.getInt());
+      messages.add(
+          switch (type) {
+            case ASSISTANT_TYPE -> new AssistantMessage(text);
+            case SYSTEM_TYPE -> new SystemMessage(text);
+            default -> new UserMessage(text);
+          });
+    }
+    return new Snapshot(latestTs, messages);
+  }
+
+  synchronized boolean write(String conversationId, String latestTs, List<Message> messages)
+      throws IOException {
+    var key = conversationId.getBytes(StandardCharsets.UTF_8);
+    var ts = latestTs.getBytes(StandardCharsets.UTF_8);
+    var texts = new ArrayList<byte[]>(messages.size());
+    var types = new ArrayList<Byte>(messages.size());
+    var length = Long.BYTES + Short.BYTES + key.length + Short.BYTES + ts.length + Integer.BYTES;
+    for (var message : messages) {
+      var type = typeOf(message.getMessageType());
+      if (type == UNSUPPORTED_TYPE) {
+        continue;
+      }
+      var text = message.getText().getBytes(StandardCharsets.UTF_8);
+      types.add(type);
+      texts.add(text);
+      length += Byte.BYTES + Integer.BYTES + text.length;
+    }
+    if (Integer.BYTES + length > segmentSize) {
+      LOG.warn("Conversation {} exceeds the store segment size, not stored.", conversationId);
+      return false;
+    }
+    if (active.remaining() < Integer.BYTES + length) {
+      roll();
+    }
+    var writtenAt = System.currentTimeMillis();
+    var offset = active.position;
+    var record = active.buffer.slice(offset + Integer.BYTES, length);
+    record
+        .putLong(writtenAt)
+        .putShort((short) key.length)
+        .put(key)
+        .putShort((short) ts.length)
+        .put(ts)
+        .putInt(texts.size());
+    for (var i = 0; i < texts.size(); i++) {
+      record.put(types.get(i)).putInt(texts.get(i).length).put(texts.get(i));
+    }
+    // the length is written last, marking the record as complete
+    active.buffer.putInt(offset, length);
+    active.position += Integer.BYTES + length;
+    index.put(conversationId, new Location(active, offset, writtenAt));
+    return true;
+  }
+
+  Segment newSegment() throws IOException {
+    var segment =
+        Segment.open(
+            directory.resolve(
+                String.format("%s%010d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX)),
+            segmentSize);
+    segments.add(segment);
+    return segment;
+  }
+
+  void roll() throws IOException {
+    active = newSegment();
+    if (segments.size() > maxSegments) {
+      compact();
+    }
+  }
+
+  void compact() throws IOException {
+    var previous = List.copyOf(segments);
+    var now = System.currentTimeMillis();
+    // one segment is left for the following writes
+    var maxCompacted = Math.max(1, maxSegments - 1);
+    segments.clear();
+    active = null;
+    var live = 0;
+    var expired = 0;
+    var evicted = 0;
+    // the most recent snapshots are kept when the live ones do not fit
+    var entries =
+        index.entrySet().stream()
+            .sorted(
+                Comparator.comparingLong(
+                        (Map.Entry<String, Location> entry) -> entry.getValue().writtenAt())
+                    .reversed())
+            .toList();
+    for (var entry : entries) {
+      var location = entry.getValue();
+      if (isExpired(location, now)) {
+        index.remove(entry.getKey(), location);
+        expired++;
+        continue;
+      }
+      var source = location.segment().buffer;
+      var length = source.getInt(location.offset());
+      if (active == null || active.remaining() < Integer.BYTES + length) {
+        if (segments.size() >= maxCompacted) {
+          index.remove(entry.getKey(), location);
+          evicted++;
+          continue;
+        }
+        active = newSegment();
+      }
+      var offset = active.position;
+      // copies the record body first and then its length, as done when writing
+      active.buffer.put(offset + Integer.BYTES, source, location.offset() + Integer.BYTES, length);
+      active.buffer.putInt(offset, length);
+      active.position += Integer.BYTES + length;
+      index.put(entry.getKey(), new Location(active, offset, location.writtenAt()));
+      live++;
+    }
+    // the following writes go to an empty segment, the last compacted one may be nearly full
+    active = newSegment();
+    for (var segment : previous) {
+      segment.close();
+      Files.deleteIfExists(segment.path);
+    }
+    registry.counter("conversation.store.evictions", "reason", "expired").increment(expired);
+    registry.counter("conversation.store.evictions", "reason", "size").increment(evicted);
+    LOG.info(
+        "Conversation store compacted {} segments into {}, {} live conversations, {} evicted.",
+        previous.size(),
+        segments.size(),
+        live,
+        expired + evicted);
+  }
+
+  boolean isExpired(Location location, long now) {
+    return now - location.writtenAt() > ttl.toMillis();
+  }
+
+  static byte typeOf(MessageType type) {
+    return switch (type) {
+      case USER -> USER_TYPE;
+      case ASSISTANT -> ASSISTANT_TYPE;
+      case SYSTEM -> SYSTEM_TYPE;
+      default -> UNSUPPORTED_TYPE;
+    };
+  }
+
+  static String readText(ByteBuffer record, int length) {
+    var bytes = new byte[length];
+    record.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static long sequence(Path path) {
+    var name = path.getFileName().toString();
+    try {
+      return Long.parseLong(
+          name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException ex) {
+      return 0;
+    }
+  }
+
+  /**
+   * A stored conversation snapshot.
+   *
+   * @param latestTs The timestamp of the latest Slack message covered by the snapshot.
+   * @param messages The messages of the conversation.
+   */
+  public record Snapshot(String latestTs, List<Message> messages) {}
+
+  record Location(Segment segment, int offset, long writtenAt) {}
+
+  static final class Segment {
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int position;
+
+    Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+      this.path = path;
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+
+    static Segment open(Path path, int size) throws IOException {
+      var channel =
+          FileChannel.open(
+              path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      return new Segment(
+          path,
+          channel,
+          channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size())));
+    }
+
+    int remaining() {
+      return buffer.capacity() - position;
+    }
+
+    void close() throws IOException {
+      buffer.force();
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.example.gcp.slack.claude.handlers;
+
+import static org.example.gcp.slack.claude.common.Utils.processSlackRequest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.slack.api.bolt.App;
+import com.slack.api.bolt.request.RequestHeaders;
+import com.slack.api.bolt.request.builtin.EventRequest;
+import com.slack.api.util.json.GsonFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Tracks the in-flight generations and drains them when the instance shuts down. On shutdown new
+ * work is not started anymore, in-flight generations get a deadline to finish and the ones still
+ * running after it are interrupted. Interrupted and not started generations are checkpointed, with
+ * their original Slack event and the partial output already sent, in a directory which can be
+ * shared between instances through a mounted volume. Interrupted generations are checkpointed once
+ * they terminate, so the replies in flight when interrupted are part of the checkpoint.
+ *
+ * <p>While running, the checkpoints directory is polled and the checkpoints found are claimed and
+ * their Slack events dispatched again through the Slack Bolt {@link App}, so {@link SlackEvent} can
+ * continue the unfinished answers instead of starting over. Checkpoints older than the configured
+ * max age are discarded, and checkpoints which could not be resumed are released to be retried.
+ */
+@Component
+public class GenerationLifecycle implements SmartLifecycle {
+  private static final Logger LOG = LoggerFactory.getLogger(GenerationLifecycle.class);
+  private static final String CHECKPOINT_SUFFIX = ".json";
+  private static final String CLAIMED_SUFFIX = ".claimed";
+
+  private final ObjectProvider<App> slackApp;
+  private final ObjectMapper objectMapper;
+  private final MeterRegistry registry;
+  private final Path directory;
+  private final Duration deadline;
+  private final Duration interruptTimeout;
+  private final Duration pollInterval;
+  private final Duration maxAge;
+  private final Gson gson = GsonFactory.createSnakeCase();
+  private final Map<String, Generation> active = new ConcurrentHashMap<>();
+  private final Map<String, Checkpoint> resumable = new ConcurrentHashMap<>();
+  private volatile Disposable poller;
+  private volatile boolean running;
+  private volatile boolean draining;
+
+  public GenerationLifecycle(
+      ObjectProvider<App> slackApp,
+      ObjectMapper objectMapper,
+      MeterRegistry registry,
+      @Value("${claude.drain.checkpoint-path}") String directory,
+      @Value("${claude.drain.deadline}") Duration deadline,
+      @Value("${claude.drain.interrupt-timeout}") Duration interruptTimeout,
+      @Value("${claude.drain.poll-interval}") Duration pollInterval,
+      @Value("${claude.drain.max-age}") Duration maxAge) {
+    this.slackApp = slackApp;
+    this.objectMapper = objectMapper;
+    this.registry = registry;
+    this.directory = Path.of(directory);
+    this.deadline = deadline;
+    this.interruptTimeout = interruptTimeout;
+    this.pollInterval = pollInterval;
+    this.maxAge = maxAge;
+    registry.gauge("generation.active", active, Map::size);
+  }
+
+  /**
+   * Tracks a generation until it terminates. In case the instance drains before the generation
+   * completes, the interruption signal given to the work emits, and the generation is checkpointed
+   * once the work terminates.
+   *
+   * @param eventId The ID of the Slack event originating the generation.
+   * @param payload The Slack event payload, serialized only when checkpointing.
+   * @param partial The output already sent to Slack.
+   * @param work The generation work, built from the interruption signal.
+   * @return The tracked generation work.
+   */
+  public <T> Mono<T> track(
+      String eventId, Object payload, StringBuffer partial, Function<Mono<Boolean>, Mono<T>> work) {
+    var generation =
+        Generation.of(
+            Optional.ofNullable(eventId).orElseGet(() -> UUID.randomUUID().toString()),
+            payload,
+            partial);
+    return Mono.defer(() -> work.apply(generation.interruption().asMono()))
+        .doOnSubscribe(__ -> active.put(generation.id(), generation))
+        .doFinally(
+            __ -> {
+              active.remove(generation.id());
+              if (generation.isInterrupted()) {
+                checkpoint(generation);
+              }
+            });
+  }
+
+  /**
+   * Checkpoints a generation which will not be started by this instance, because it is draining.
+   *
+   * @param eventId The ID of the Slack event originating the generation.
+   * @param payload The Slack event payload.
+   */
+  public void defer(String eventId, Object payload) {
+    var id = Optional.ofNullable(eventId).orElseGet(() -> UUID.randomUUID().toString());
+    checkpoint(Generation.of(id, payload, new StringBuffer()));
+    outcome("deferred");
+  }
+
+  /**
+   * @return {@code true} when the instance is draining and new work should not be started.
+   */
+  public boolean isDraining() {
+    return draining;
+  }
+
+  /**
+   * Retrieves, only once, the checkpoint of a generation being resumed by this instance.
+   *
+   * @param eventId The ID of the Slack event originating the generation.
+   * @return The checkpoint if the event is being resumed, empty otherwise.
+   */
+  public Optional<Checkpoint> resumed(String eventId) {
+    return Optional.ofNullable(eventId).map(resumable::remove);
+  }
+
+  @Override
+  public void start() {
+    running = true;
+    // checkpoints written by other instances while draining are picked up while running
+    poller =
+        Flux.interval(Duration.ZERO, pollInterval)
+            .onBackpressureDrop()
+            .concatMap(
+                __ ->
+                    Mono.fromRunnable(this::resumeCheckpoints)
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .onErrorResume(
+                            ex -> {
+                              LOG.warn("Problems polling the generation checkpoints.", ex);
+                              return Mono.empty();
+                            }))
+            .subscribe();
+  }
+
+  @Override
+  public void stop() {
+    draining = true;
+    Optional.ofNullable(poller).ifPresent(Disposable::dispose);
+    var start = System.nanoTime();
+    LOG.info("Draining {} in-flight generations.", active.size());
+    awaitActive(deadline);
+    active.values().forEach(Generation::interrupt);
+    // interrupted generations are checkpointed once they terminate
+    awaitActive(interruptTimeout);
+    active.values().forEach(this::checkpoint);
+    var elapsed = System.nanoTime() - start;
+    registry.timer("generation.drain.duration").record(elapsed, TimeUnit.NANOSECONDS);
+    LOG.info("Drain completed in {} ms.", TimeUnit.NANOSECONDS.toMillis(elapsed));
+    running = false;
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  void awaitActive(Duration timeout) {
+    Flux.interval(Duration.ofMillis(100))
+        .takeUntil(__ -> active.isEmpty())
+        .then()
+        .timeout(timeout, Mono.empty())
+        .block();
+  }
+
+  void outcome(String outcome) {
+    registry.counter("generation.drain.generations", "outcome", outcome).increment();
+  }
+
+  void checkpoint(Generation generation) {
+    if (!generation.checkpointed().compareAndSet(false, true)) {
+      return;
+    }
+    if (generation.isInterrupted()) {
+      outcome("checkpointed");
+    }
+    try {
+      Files.createDirectories(directory);
+      var checkpoint =
+          new Checkpoint(
+              generation.id(),
+              gson.toJson(generation.payload()),
+              generation.partial().toString(),
+              System.currentTimeMillis());
+      var file = directory.resolve(generation.id() + CHECKPOINT_SUFFIX);
+      var temporary = directory.resolve(generation.id() + CHECKPOINT_SUFFIX + ".tmp");
+      objectMapper.writeValue(temporary.toFile(), checkpoint);
+      Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+      LOG.info("Generation {} checkpointed.", generation.id());
+    } catch (IOException ex) {
+      LOG.error("Problems checkpointing generation {}.", generation.id(), ex);
+    }
+  }
+
+  void resumeCheckpoints() {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    try (var files = Files.list(directory)) {
+      for (var file : files.toList()) {
+        var name = file.getFileName().toString();
+        if (name.endsWith(CHECKPOINT_SUFFIX) || name.endsWith(CLAIMED_SUFFIX)) {
+          if (isExpired(file)) {
+            // covers unreadable checkpoints and claims left by instances stopped while resuming
+            discard(file);
+          } else if (name.endsWith(CHECKPOINT_SUFFIX)) {
+            resume(file);
+          }
+        }
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Problems listing the generation checkpoints", ex);
+    }
+  }
+
+  boolean isExpired(Path file) {
+    try {
+      return System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis()
+          > maxAge.toMillis();
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  void discard(Path file) {
+    try {
+      if (Files.deleteIfExists(file)) {
+        outcome("expired");
+        LOG.info("Discarded generation checkpoint {}, older than {}.", file, maxAge);
+      }
+    } catch (IOException ex) {
+      LOG.warn("Problems discarding generation checkpoint {}.", file, ex);
+    }
+  }
+
+  void resume(Path file) {
+    var claimed = file.resolveSibling(file.getFileName() + CLAIMED_SUFFIX);
+    try {
+      // the rename claims the checkpoint, only one instance resumes it
+      Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      return;
+    }
+    Checkpoint checkpoint = null;
+    try {
+      checkpoint = objectMapper.readValue(claimed.toFile(), Checkpoint.class);
+      if (System.currentTimeMillis() - checkpoint.createdAt() > maxAge.toMillis()) {
+        // the thread has most likely moved on, continuing the answer would be confusing
+        discard(claimed);
+        return;
+      }
+      resumable.put(checkpoint.eventId(), checkpoint);
+      processSlackRequest(
+              slackApp.getObject(),
+              new EventRequest(checkpoint.payload(), new RequestHeaders(Map.of())))
+          .block();
+      outcome("resumed");
+      LOG.info("Generation {} resumed.", checkpoint.eventId());
+      Files.deleteIfExists(claimed);
+    } catch (Exception ex) {
+      LOG.error("Problems resuming generation from {}, released to be retried.", claimed, ex);
+      Optional.ofNullable(checkpoint).ifPresent(failed -> resumable.remove(failed.eventId()));
+      release(claimed, file);
+    }
+  }
+
+  void release(Path claimed, Path file) {
+    try {
+      Files.move(claimed, file, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      LOG.warn("Problems releasing generation checkpoint {}.", claimed, ex);
+    }
+  }
+
+  record Generation(
+      String id,
+      Object payload,
+      StringBuffer partial,
+      Sinks.One<Boolean> interruption,
+      AtomicBoolean interrupted,
+      AtomicBoolean checkpointed) {
+
+    static Generation of(String id, Object payload, StringBuffer partial) {
+      return new Generation(
+          id, payload, partial, Sinks.one(), new AtomicBoolean(), new AtomicBoolean());
+    }
+
+    void interrupt() {
+      interrupted.set(true);
+      interruption.tryEmitValue(true);
+    }
+
+    boolean isInterrupted() {
+      return interrupted.get();
+    }
+  }
+
+  /**
+   * The checkpoint of an unfinished generation.
+   *
+   * @param eventId The ID of the Slack event originating the generation.
+   * @param payload The Slack event payload, as JSON.
+   * @param partial The output already sent to Slack.
+   * @param createdAt The checkpoint creation time, in epoch millis.
+   */
+  public record Checkpoint(String eventId, String payload, String partial, long createdAt) {}
+}
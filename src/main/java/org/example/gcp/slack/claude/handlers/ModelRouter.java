@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.example.gcp.slack.claude.handlers;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.anthropic.AnthropicChatOptions;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Decides which Claude model serves each conversation turn. Turns are classified with cheap local
+ * heuristics (message length, thread history and likeliness of tool usage) and sent either to a
+ * fast model or to the large one. Once a thread needs the large model it stays escalated for the
+ * rest of the conversation. The output token budget of each turn is sized from the detected intent,
+ * instead of reserving the same budget for every turn. Latency, token usage and budget usage are
+ * recorded per route to help tuning.
+ */
+@Component
+public class ModelRouter {
+  private static final Logger LOG = LoggerFactory.getLogger(ModelRouter.class);
+
+  private final boolean enabled;
+  private final Route fast;
+  private final Route large;
+  private final Integer shortMessageLength;
+  private final Integer maxFastHistory;
+  private final Set<String> toolKeywords;
+  private final Set<String> escalatedThreads;
+  private final Integer defaultMaxTokens;
+  private final Integer minTokens;
+  private final Integer maxTokens;
+  private final Set<String> listingKeywords;
+  private final String stopMarker;
+  private final MeterRegistry registry;
+
+  public ModelRouter(
+      @Value("${claude.routing.enabled}") Boolean enabled,
+      @Value("${claude.routing.fast.model}") String fastModel,
+      @Value("${claude.routing.fast.max-tokens}") Integer fastMaxTokens,
+      @Value("${claude.routing.large.model}") String largeModel,
+      @Value("${claude.routing.large.max-tokens}") Integer largeMaxTokens,
+      @Value("${claude.routing.short-message-length}") Integer shortMessageLength,
+      @Value("${claude.routing.max-fast-history}") Integer maxFastHistory,
+      @Value("${claude.routing.tool-keywords}") List<String> toolKeywords,
+      @Value("${claude.routing.escalated-threads-capacity}") Integer escalatedCapacity,
+      @Value("${claude.generation.default-max-tokens}") Integer defaultMaxTokens,
+      @Value("${claude.generation.min-tokens}") Integer minTokens,
+      @Value("${claude.generation.max-tokens}") Integer maxTokens,
+      @Value("${claude.generation.listing-keywords}") List<String> listingKeywords,
+      @Value("${claude.generation.stop-marker}") String stopMarker,
+      MeterRegistry registry) {
+    this.enabled = enabled;
+    this.fast = new Route("fast", fastModel, fastMaxTokens, "");
+    this.large = new Route("large", largeModel, largeMaxTokens, "");
+    this.shortMessageLength = shortMessageLength;
+    this.maxFastHistory = maxFastHistory;
+    this.toolKeywords = keywords(toolKeywords);
+    this.escalatedThreads =
+        Collections.synchronizedSet(
+            Collections.newSetFromMap(
+                new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                  @Override
+                  protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > escalatedCapacity;
+                  }
+                }));
+    this.defaultMaxTokens = defaultMaxTokens;
+    this.minTokens = minTokens;
+    this.maxTokens = maxTokens;
+    this.listingKeywords = keywords(listingKeywords);
+    this.stopMarker = stopMarker;
+    this.registry = registry;
+  }
+
+  static Set<String> keywords(List<String> keywords) {
+    return keywords.stream()
+        .map(keyword -> keyword.trim().toLowerCase(Locale.ROOT))
+        .filter(keyword -> !keyword.isEmpty())
+        .collect(Collectors.toUnmodifiableSet());
+  }
+
+  /**
+   * Classifies a conversation turn and selects the model route for it. Threads routed to the large
+   * model are remembered, so follow ups in the same thread do not downgrade mid-conversation. The
+   * route carries the output token budget for the turn, see {@link #budget(Route, String)}.
+   *
+   * @param conversationId The identifier of the conversation (channel and thread).
+   * @param message The current user message.
+   * @param history The messages in the conversation, ending with the current user message.
+   * @return The {@link Route} to use for the generation.
+   */
+  public Route route(String conversationId, String message, List<Message> history) {
+    var classified =
+        enabled
+            ? classify(conversationId, message, previousTurns(history))
+            : large.because("disabled");
+    if (classified.isLarge()) {
+      escalatedThreads.add(conversationId);
+    }
+    var route = classified.withMaxTokens(budget(classified, message));
+    tokens(route, "budget", route.maxTokens());
+    var difference = defaultMaxTokens - route.maxTokens();
+    if (difference >= 0) {
+      budget(
+          "claude.generation.budget.reduction",
+          "Reduction of the reserved max tokens, compared to the static default",
+          route,
+          difference);
+    } else {
+      budget(
+          "claude.generation.budget.increase",
+          "Increase of the reserved max tokens, compared to the static default",
+          route,
+          -difference);
+    }
+    Counter.builder("claude.routing.decisions")
+        .tag("route", route.name())
+        .tag("reason", route.reason())
+        .register(registry)
+        .increment();
+    LOG.info(
+        "Routing conversation {} to {} model {} ({}) with {} max tokens.",
+        conversationId,
+        route.name(),
+        route.model(),
+        route.reason(),
+        route.maxTokens());
+    return route;
+  }
+
+  Route classify(String conversationId, String message, List<Message> history) {
+    if (escalatedThreads.contains(conversationId)) {
+      return large.because("escalated");
+    }
+    if (likelyNeedsTools(message)) {
+      return large.because("tools");
+    }
+    if (message.length() > shortMessageLength) {
+      return large.because("length");
+    }
+    if (history.size() > maxFastHistory) {
+      return large.because("history");
+    }
+    if (awaitsConfirmation(history)) {
+      return large.because("confirmation");
+    }
+    return fast.because(history.isEmpty() ? "greeting" : "follow-up");
+  }
+
+  static List<Message> previousTurns(List<Message> history) {
+    // the history ends with the current user message, heuristics only look at the previous turns
+    return !history.isEmpty() && history.getLast() instanceof UserMessage
+        ? history.subList(0, history.size() - 1)
+        : history;
+  }
+
+  boolean likelyNeedsTools(String message) {
+    return words(message).anyMatch(toolKeywords::contains);
+  }
+
+  static Stream<String> words(String message) {
+    return Arrays.stream(message.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}-]+"));
+  }
+
+  /**
+   * Sizes the output token budget of a turn. The route's budget is multiplied by the number of asks
+   * in the message (questions or requests joined by "and") and doubled for listings, which tend to
+   * be long.
+   *
+   * @param route The route selected for the turn.
+   * @param message The current user message.
+   * @return The max tokens for the generation, within the configured limits.
+   */
+  int budget(Route route, String message) {
+    var asks =
+        Math.max(1, (int) message.chars().filter(character -> character == '?').count())
+            + (int) words(message).filter("and"::equals).count();
+    var listing = words(message).anyMatch(listingKeywords::contains) ? 2 : 1;
+    return Math.clamp((long) route.maxTokens() * Math.min(asks, 4) * listing, minTokens, maxTokens);
+  }
+
+  static boolean awaitsConfirmation(List<Message> history) {
+    // the assistant proposed an action and the user is most likely answering to it
+    return Optional.ofNullable(history.isEmpty() ? null : history.getLast())
+        .filter(AssistantMessage.class::isInstance)
+        .map(Message::getText)
+        .map(text -> text.strip().endsWith("?"))
+        .orElse(false);
+  }
+
+  /**
+   * Instruments a generation stream with latency (first response and total) and token usage metrics
+   * for the given route. For completed generations, the budget left unused is measured from the
+   * reported usage.
+   *
+   * @param route The route used for the generation.
+   * @param responses The streamed model responses.
+   * @return The same stream of responses, instrumented.
+   */
+  public Flux<ChatResponse> record(Route route, Flux<ChatResponse> responses) {
+    return Flux.defer(
+        () -> {
+          var start = System.nanoTime();
+          var firstSeen = new AtomicBoolean();
+          var promptTokens = new AtomicInteger();
+          var completionTokens = new AtomicInteger();
+          return responses
+              .doOnNext(
+                  response -> {
+                    if (firstSeen.compareAndSet(false, true)) {
+                      timer("claude.generation.first-response", route)
+                          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                    // streamed chunks may carry partial usage, keep the highest values seen
+                    Optional.ofNullable(response.getMetadata())
+                        .map(metadata -> metadata.getUsage())
+                        .ifPresent(
+                            usage -> {
+                              promptTokens.accumulateAndGet(
+                                  tokens(usage.getPromptTokens()), Math::max);
+                              completionTokens.accumulateAndGet(
+                                  tokens(usage.getCompletionTokens()), Math::max);
+                            });
+                  })
+              .doFinally(
+                  signal -> {
+                    timer("claude.generation.duration", route)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    tokens(route, "prompt", promptTokens.get());
+                    tokens(route, "completion", completionTokens.get());
+                    // usage is only complete once the generation completes
+                    if (signal == SignalType.ON_COMPLETE && completionTokens.get() > 0) {
+                      budget(
+                          "claude.generation.budget.unused",
+                          "Max tokens reserved but not generated, from the reported usage",
+                          route,
+                          Math.max(0, route.maxTokens() - completionTokens.get()));
+                    }
+                  });
+        });
+  }
+
+  Timer timer(String name, Route route) {
+    return Timer.builder(name)
+        .tag("route", route.name())
+        .tag("model", route.model())
+        .register(registry);
+  }
+
+  static int tokens(Integer count) {
+    return Optional.ofNullable(count).orElse(0);
+  }
+
+  void tokens(Route route, String type, int count) {
+    DistributionSummary.builder("claude.generation.tokens")
+        .baseUnit("tokens")
+        .tag("route", route.name())
+        .tag("model", route.model())
+        .tag("type", type)
+        .register(registry)
+        .record(count);
+  }
+
+  void budget(String name, String description, Route route, int count) {
+    DistributionSummary.builder(name)
+        .description(description)
+        .baseUnit("tokens")
+        .tag("route", route.name())
+        .tag("model", route.model())
+        .register(registry)
+        .record(count);
+  }
+
+  /**
+   * Builds the generation options for a route. The stop marker is set as a stop sequence, so the
+   * model stops generating as soon as the answer is complete.
+   *
+   * @param route The route used for the generation.
+   * @return The generation options.
+   */
+  public AnthropicChatOptions options(Route route) {
+    var options = AnthropicChatOptions.builder().model(route.model()).maxTokens(route.maxTokens());
+    if (!stopMarker.isEmpty()) {
+      options.stopSequences(List.of(stopMarker));
+    }
+    return options.build();
+  }
+
+  /**
+   * A model route, carrying the model and generation limits to use and the reason it was chosen.
+   */
+  public record Route(String name, String model, Integer maxTokens, String reason) {
+
+    Route because(String reason) {
+      return new Route(name, model, maxTokens, reason);
+    }
+
+    Route withMaxTokens(Integer maxTokens) {
+      return new Route(name, model, maxTokens, reason);
+    }
+
+    boolean isLarge() {
+      return "large".equals(name);
+    }
+  }
+}
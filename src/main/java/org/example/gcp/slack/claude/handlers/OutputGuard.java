@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.example.gcp.slack.claude.handlers;
+
+/**
+ * Guards the text streamed to Slack for a single generation. The text is let through until the
+ * configured output ceiling (in characters) is reached, at which point the guard is stopped so the
+ * generation can be cancelled upstream. The end of a complete answer is handled by the model stop
+ * sequence instead, see {@link ModelRouter#options(ModelRouter.Route)}.
+ */
+final class OutputGuard {
+  private final int ceiling;
+  private int emitted;
+  private boolean stopped;
+
+  OutputGuard(int ceiling) {
+    this.ceiling = ceiling;
+  }
+
+  /**
+   * Accepts a new chunk of generated text.
+   *
+   * @param chunk The generated text.
+   * @return The text which can be sent, possibly empty.
+   */
+  String accept(String chunk) {
+    if (stopped) {
+      return "";
+    }
+    var allowed = Math.min(chunk.length(), ceiling - emitted);
+    if (allowed < chunk.length()) {
+      stopped = true;
+    }
+    emitted += allowed;
+    return chunk.substring(0, allowed);
+  }
+
+  boolean isStopped() {
+    return stopped;
+  }
+}
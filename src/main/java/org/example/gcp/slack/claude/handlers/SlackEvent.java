@@ -15,11 +15,14 @@
  */
 package org.example.gcp.slack.claude.handlers;
 
+import static org.example.gcp.slack.claude.common.Utils.conversationId;
 import static org.example.gcp.slack.claude.common.Utils.errorMessage;
+import static org.example.gcp.slack.claude.common.Utils.messageTs;
 import static org.example.gcp.slack.claude.common.Utils.removeMention;
 import static org.example.gcp.slack.claude.common.Utils.sendErrorToSlack;
 import static org.example.gcp.slack.claude.common.Utils.separateNewlines;
 import static org.example.gcp.slack.claude.common.Utils.threadTs;
+import static org.example.gcp.slack.claude.common.Utils.toMessage;
 import static org.example.gcp.slack.claude.common.Utils.toText;
 
 import com.slack.api.app_backend.events.payload.EventsApiPayload;
@@ -29,11 +32,23 @@ import com.slack.api.model.event.AppMentionEvent;
 import com.slack.api.model.event.Event;
 import com.slack.api.model.event.MessageChangedEvent;
 import com.slack.api.model.event.MessageEvent;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import org.example.gcp.slack.claude.common.logging.DebugSamplingFilter;
+import org.example.gcp.slack.claude.config.LoggingConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
 
 /**
  * Handles incoming Slack events such as app mentions and messages in threads. This class processes
@@ -43,18 +58,33 @@ import reactor.core.publisher.Flux;
 @Component
 public class SlackEvent {
   private static final Logger LOG = LoggerFactory.getLogger(SlackEvent.class);
+  private static final String CONTINUATION =
+      "Your previous answer in this thread was interrupted. Continue it exactly where it stopped,"
+          + " without repeating what was already sent.";
 
   private final ClaudeChat claude;
   private final SlackOperations slack;
+  private final ConversationStore store;
+  private final TeamPartitions partitions;
+  private final GenerationLifecycle lifecycle;
   private final Integer groupedLinesCount;
+  private final Double debugLogSampleRate;
 
   public SlackEvent(
       ClaudeChat claude,
       SlackOperations send,
-      @Value("${slack.grouped-lines-count}") Integer lines) {
+      ConversationStore store,
+      TeamPartitions partitions,
+      GenerationLifecycle lifecycle,
+      @Value("${slack.grouped-lines-count}") Integer lines,
+      @Value("${slack.debug-log-sample-rate}") Double debugLogSampleRate) {
     this.claude = claude;
     this.slack = send;
+    this.store = store;
+    this.partitions = partitions;
+    this.lifecycle = lifecycle;
     this.groupedLinesCount = lines;
+    this.debugLogSampleRate = debugLogSampleRate;
   }
 
   /**
@@ -67,7 +97,8 @@ public class SlackEvent {
    */
   public Response mention(EventsApiPayload<AppMentionEvent> payload, EventContext ctx) {
     var event = payload.getEvent();
-    process(ctx, event, event.getChannel(), threadTs(event), removeMention(event.getText()));
+    process(
+        ctx, payload, event, event.getChannel(), threadTs(event), removeMention(event.getText()));
     return ctx.ack();
   }
 
@@ -83,7 +114,7 @@ public class SlackEvent {
   public Response threadMessage(EventsApiPayload<MessageEvent> payload, EventContext ctx) {
     var event = payload.getEvent();
     if (event.getThreadTs() != null) {
-      process(ctx, event, event.getChannel(), event.getThreadTs(), event.getText());
+      process(ctx, payload, event, event.getChannel(), event.getThreadTs(), event.getText());
     }
     return ctx.ack();
   }
@@ -102,41 +133,197 @@ public class SlackEvent {
     var event = payload.getEvent();
     var message = event.getMessage();
     if (message.getThreadTs() != null) {
-      process(ctx, event, event.getChannel(), message.getThreadTs(), message.getText());
+      process(ctx, payload, event, event.getChannel(), message.getThreadTs(), message.getText());
     }
     return ctx.ack();
   }
 
   /**
-   * Core processing logic for handling an incoming message event. This method fetches the previous
-   * messages in the thread from Slack, then calls {@link ClaudeChat#generate(String, List)} to get
-   * an AI response. The response, which is a stream of text, is then formatted and sent as one or
-   * more reply messages back to the originating Slack thread using {@link
-   * SlackOperations#reply(EventContext, Event, String)}. Errors during the process are caught and
-   * reported to Slack.
+   * Core processing logic for handling an incoming message event. This method calls {@link
+   * ClaudeChat#generate(String, String, Mono)} with the retrieval of the previous messages in the
+   * thread, which is resolved concurrently with the AI request preparation. The response, which is
+   * a stream of text, is then formatted and sent as one or more reply messages back to the
+   * originating Slack thread using {@link SlackOperations#reply(EventContext, Event, String)}.
+   * Errors during the process are caught and reported to Slack. Once all the replies are sent, the
+   * conversation is saved in the {@link ConversationStore}. The work runs within the {@link
+   * TeamPartitions} partition of the event's workspace and is tracked by the {@link
+   * GenerationLifecycle}: while draining the event is deferred to another instance, an interrupted
+   * generation stops after sending its pending replies, and when the event is being resumed the
+   * model is asked to continue the answer already sent to the thread.
+   *
+   * <p>The event identifier, channel and thread are written in the Reactor context, and so
+   * propagated as MDC fields to every log of the processing, together with the per-event debug logs
+   * sampling decision.
    *
    * @param ctx The Slack event context.
+   * @param payload The Slack event payload.
    * @param event The original Slack event (mention or message).
    * @param channelId The ID of the channel where the event occurred.
    * @param threadTs The timestamp of the thread to reply to.
    * @param message The text of the message to process.
    */
-  void process(EventContext ctx, Event event, String channelId, String threadTs, String message) {
-    slack
-        .history(ctx, channelId, threadTs)
-        .flatMapMany(previousMessages -> claude.generate(message, previousMessages))
-        // llm generates a text stream, and we want to iterate through the lines
-        .flatMap(text -> Flux.fromIterable(separateNewlines(text)))
-        // we will be buffering text until we find a newline char
-        .bufferUntil(text -> text.endsWith("\n"))
-        // remove all empty lines
-        .filter(words -> words.size() > 1 || !words.stream().findFirst().orElse("").isBlank())
-        // buffer again to condense more text to be sent to Slack at a time
-        .buffer(groupedLinesCount)
-        .flatMap(textResponse -> slack.reply(ctx, event, toText(textResponse)).flux())
-        .subscribe(
-            __ -> LOG.debug("Line sent to Slack thread."),
-            ex -> sendErrorToSlack(ctx, event, errorMessage(ex)),
-            () -> LOG.info("All messages sent"));
+  void process(
+      EventContext ctx,
+      EventsApiPayload<?> payload,
+      Event event,
+      String channelId,
+      String threadTs,
+      String message) {
+    var eventId = payload.getEventId();
+    if (lifecycle.isDraining()) {
+      lifecycle.defer(eventId, payload);
+      return;
+    }
+    var resumed = lifecycle.resumed(eventId);
+    var prompt =
+        resumed.filter(checkpoint -> !checkpoint.partial().isBlank()).isPresent()
+            ? CONTINUATION
+            : message;
+    var conversation = conversationId(channelId, threadTs);
+    var history = history(ctx, event, channelId, threadTs, message, resumed.isPresent()).cache();
+    var reply = new StringBuffer();
+    var sent = new StringBuffer();
+    var interrupted = new AtomicBoolean();
+    lifecycle
+        // unfinished generations are checkpointed when the instance drains
+        .track(
+            eventId,
+            payload,
+            sent,
+            interruption ->
+                partitions
+                    // each workspace gets its own concurrency and rate limits
+                    .run(
+                        ctx.getTeamId(),
+                        claude
+                            // history retrieval runs concurrently with the request preparation
+                            .generate(conversation, prompt, history)
+                            // an interrupted generation stops, while the pending replies are sent
+                            .takeUntilOther(interruption.doOnNext(interrupted::set))
+                            .doOnNext(reply::append)
+                            // llm generates a text stream, and we want to iterate through the lines
+                            .flatMap(text -> Flux.fromIterable(separateNewlines(text)))
+                            // we will be buffering text until we find a newline char
+                            .bufferUntil(text -> text.endsWith("\n"))
+                            // remove all empty lines
+                            .filter(
+                                words ->
+                                    words.size() > 1
+                                        || !words.stream().findFirst().orElse("").isBlank())
+                            // buffer again to condense more text to be sent to Slack at a time
+                            .buffer(groupedLinesCount)
+                            .flatMap(
+                                textResponse -> {
+                                  var text = toText(textResponse);
+                                  return slack
+                                      .reply(ctx, event, text)
+                                      .doOnNext(__ -> sent.append(text))
+                                      .flux();
+                                }))
+                    .doOnNext(__ -> LOG.debug("Line sent to Slack thread."))
+                    .then(
+                        Mono.defer(
+                            () -> {
+                              LOG.info("All messages sent");
+                              // the partial answer of an interrupted generation is not stored
+                              return interrupted.get()
+                                  ? Mono.just(false)
+                                  : remember(
+                                      conversation, messageTs(event), history, reply.toString());
+                            })))
+        .onErrorResume(
+            ex -> {
+              sendErrorToSlack(ctx, event, errorMessage(ex));
+              return Mono.empty();
+            })
+        .contextWrite(logContext(eventId, channelId, threadTs))
+        .subscribe();
+  }
+
+  Context logContext(String eventId, String channelId, String threadTs) {
+    return Context.of(
+        LoggingConfig.EVENT_ID_KEY,
+        Optional.ofNullable(eventId).orElse(""),
+        LoggingConfig.CHANNEL_KEY,
+        channelId,
+        LoggingConfig.THREAD_TS_KEY,
+        threadTs,
+        DebugSamplingFilter.SAMPLED_KEY,
+        String.valueOf(ThreadLocalRandom.current().nextDouble() < debugLogSampleRate));
+  }
+
+  /**
+   * Retrieves the conversation history, from the {@link ConversationStore} when the conversation is
+   * stored or from Slack otherwise. Edited messages and resumed generations always retrieve the
+   * history from Slack, since the stored conversation does not reflect the edit or the partially
+   * sent answer. The stored conversation is completed with the messages posted in the thread after
+   * it, retrieved with a single lightweight request, so turns handled by other instances or that
+   * failed before being stored are not lost and the full thread is not downloaded again.
+   */
+  Mono<List<Message>> history(
+      EventContext ctx,
+      Event event,
+      String channelId,
+      String threadTs,
+      String message,
+      boolean resumed) {
+    var fromSlack = slack.history(ctx, channelId, threadTs);
+    if (resumed || event instanceof MessageChangedEvent) {
+      return fromSlack;
+    }
+    var conversation = conversationId(channelId, threadTs);
+    return store
+        .find(conversation)
+        .flatMap(
+            snapshot ->
+                slack
+                    .repliesSince(ctx, channelId, threadTs, snapshot.latestTs())
+                    .map(
+                        replies ->
+                            Stream.concat(
+                                    snapshot.messages().stream(),
+                                    turnsSince(ctx, replies, messageTs(event), message).stream())
+                                .toList())
+                    .onErrorResume(ex -> fromSlack))
+        .switchIfEmpty(fromSlack);
+  }
+
+  /**
+   * Converts the messages posted in the thread after a stored snapshot into conversation turns. The
+   * bot replies right after the snapshot are the stored answer, and so they are skipped. The
+   * current message is always the last turn.
+   */
+  List<Message> turnsSince(
+      EventContext ctx,
+      List<com.slack.api.model.Message> replies,
+      String currentTs,
+      String message) {
+    var botId = ctx.getBotUserId();
+    var turns =
+        replies.stream()
+            .dropWhile(reply -> botId.equals(reply.getUser()))
+            .filter(reply -> !currentTs.equals(reply.getTs()))
+            .map(reply -> toMessage(reply.getUser(), botId, removeMention(reply.getText())))
+            .toList();
+    if (!turns.isEmpty()) {
+      LOG.info("Stored conversation completed with {} messages from the thread.", turns.size());
+    }
+    return Stream.concat(turns.stream(), Stream.<Message>of(new UserMessage(message))).toList();
+  }
+
+  Mono<Boolean> remember(
+      String conversation, String latestTs, Mono<List<Message>> history, String reply) {
+    return history
+        .map(
+            previous ->
+                Stream.concat(previous.stream(), Stream.<Message>of(new AssistantMessage(reply)))
+                    .toList())
+        .flatMap(messages -> store.save(conversation, latestTs, messages))
+        .doOnNext(__ -> LOG.debug("Conversation stored."))
+        .onErrorResume(
+            ex -> {
+              LOG.warn("Problems storing the conversation {}.", conversation, ex);
+              return Mono.just(false);
+            });
   }
 }
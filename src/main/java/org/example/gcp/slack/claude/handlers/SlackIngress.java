@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.example.gcp.slack.claude.handlers;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Optional;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+/**
+ * Lean admission of incoming Slack HTTP requests. The Slack request signature is computed directly
+ * over the received {@link DataBuffer}s and the event type is inspected with a streaming JSON
+ * parser, so requests with bad signatures and events the application does not handle (bot messages,
+ * messages outside threads, unsupported types) are answered before any decoding or JSON binding
+ * happens.
+ */
+@Component
+public class SlackIngress {
+  private static final String SIGNATURE_HEADER = "X-Slack-Signature";
+  private static final String TIMESTAMP_HEADER = "X-Slack-Request-Timestamp";
+  private static final String SIGNATURE_VERSION = "v0";
+  private static final Duration MAX_REQUEST_AGE = Duration.ofMinutes(5);
+
+  private final ThreadLocal<Mac> macs;
+  private final JsonFactory jsonFactory;
+  private final MeterRegistry registry;
+
+  public SlackIngress(
+      @Value("${slack.signing-secret}") String signingSecret,
+      ObjectMapper objectMapper,
+      MeterRegistry registry) {
+    // without a signing secret no request can be verified, all of them get rejected
+    this.macs =
+        signingSecret.isBlank()
+            ? null
+            : ThreadLocal.withInitial(
+                () -> {
+                  try {
+                    var mac = Mac.getInstance("HmacSHA256");
+                    mac.init(
+                        new SecretKeySpec(
+                            signingSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+                    return mac;
+                  } catch (GeneralSecurityException ex) {
+                    throw new IllegalStateException(
+                        "Problems initializing the signature verifier", ex);
+                  }
+                });
+    this.jsonFactory = objectMapper.getFactory();
+    this.registry = registry;
+  }
+
+  /**
+   * Decides if an incoming request should reach the Slack Bolt application. Only accepted requests
+   * get their body decoded; the caller retains the ownership of the buffer.
+   *
+   * @param headers The request headers.
+   * @param body The complete request body.
+   * @return The {@link Admission} for the request.
+   */
+  public Admission admit(HttpHeaders headers, DataBuffer body) {
+    var verdict =
+        !verify(headers, body)
+            ? Verdict.REJECTED
+            : isJson(headers) ? classify(body) : Verdict.ACCEPTED;
+    registry
+        .counter("slack.ingress.requests", "verdict", verdict.name().toLowerCase(Locale.ROOT))
+        .increment();
+    return new Admission(
+        verdict, verdict == Verdict.ACCEPTED ? body.toString(StandardCharsets.UTF_8) : null);
+  }
+
+  boolean verify(HttpHeaders headers, DataBuffer body) {
+    var signature = headers.getFirst(SIGNATURE_HEADER);
+    var timestamp = headers.getFirst(TIMESTAMP_HEADER);
+    if (macs == null || signature == null || timestamp == null || !isRecent(timestamp)) {
+      return false;
+    }
+    var mac = macs.get();
+    mac.update((SIGNATURE_VERSION + ":" + timestamp + ":").getBytes(StandardCharsets.US_ASCII));
+    try (var buffers = body.readableByteBuffers()) {
+      while (buffers.hasNext()) {
+        mac.update(buffers.next());
+      }
+    }
+    var expected = SIGNATURE_VERSION + "=" + HexFormat.of().formatHex(mac.doFinal());
+    return MessageDigest.isEqual(
+        expected.getBytes(StandardCharsets.US_ASCII),
+        signature.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  static boolean isRecent(String timestamp) {
+    try {
+      var age = Duration.between(Instant.ofEpochSecond(Long.parseLong(timestamp)), Instant.now());
+      return age.abs().compareTo(MAX_REQUEST_AGE) <= 0;
+    } catch (NumberFormatException ex) {
+      return false;
+    }
+  }
+
+  static boolean isJson(HttpHeaders headers) {
+    return Optional.ofNullable(headers.getContentType())
+        .map(MediaType.APPLICATION_JSON::isCompatibleWith)
+        .orElse(false);
+  }
+
+  Verdict classify(DataBuffer body) {
+    // the parser consumes the buffer, its read position is restored for decoding the body later
+    var readPosition = body.readPosition();
+    try (var parser = jsonFactory.createParser(body.asInputStream())) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return Verdict.ACCEPTED;
+      }
+      String type = null;
+      EventFields event = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        var name = parser.currentName();
+        parser.nextToken();
+        switch (name) {
+          case "type" -> type = parser.getValueAsString();
+          case "event" -> event = readEvent(parser);
+          default -> parser.skipChildren();
+        }
+      }
+      // url verification and other non event payloads are left to the Bolt application
+      if (!"event_callback".equals(type) || event == null) {
+        return Verdict.ACCEPTED;
+      }
+      return event.handled() ? Verdict.ACCEPTED : Verdict.IGNORED;
+    } catch (IOException ex) {
+      // malformed payloads are reported by the Bolt application
+      return Verdict.ACCEPTED;
+    } finally {
+      body.readPosition(readPosition);
+    }
+  }
+
+  static EventFields readEvent(JsonParser parser) throws IOException {
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return null;
+    }
+    String type = null;
+    String subtype = null;
+    String botId = null;
+    String threadTs = null;
+    String changedThreadTs = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      var name = parser.currentName();
+      parser.nextToken();
+      switch (name) {
+        case "type" -> type = parser.getValueAsString();
+        case "subtype" -> subtype = parser.getValueAsString();
+        case "bot_id" -> botId = parser.getValueAsString();
+        case "thread_ts" -> threadTs = parser.getValueAsString();
+        case "message" -> changedThreadTs = readThreadTs(parser);
+        default -> parser.skipChildren();
+      }
+    }
+    return new EventFields(type, subtype, botId, threadTs, changedThreadTs);
+  }
+
+  static String readThreadTs(JsonParser parser) throws IOException {
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return null;
+    }
+    String threadTs = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      var name = parser.currentName();
+      parser.nextToken();
+      if ("thread_ts".equals(name)) {
+        threadTs = parser.getValueAsString();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return threadTs;
+  }
+
+  record EventFields(
+      String type, String subtype, String botId, String threadTs, String changedThreadTs) {
+
+    /** Mirrors the events handled by {@link SlackEvent}, bot authored events are never handled. */
+    boolean handled() {
+      if (botId != null) {
+        return false;
+      }
+      return switch (Optional.ofNullable(type).orElse("")) {
+        case "app_mention" -> true;
+        case "message" ->
+            subtype == null
+                ? threadTs != null
+                : "message_changed".equals(subtype) && changedThreadTs != null;
+        default -> false;
+      };
+    }
+  }
+
+  /** The outcome of the request admission. */
+  public enum Verdict {
+    ACCEPTED,
+    IGNORED,
+    REJECTED
+  }
+
+  /**
+   * The admission of a request, the decoded body is only present for accepted ones.
+   *
+   * @param verdict The admission verdict.
+   * @param body The decoded request body, null when not accepted.
+   */
+  public record Admission(Verdict verdict, String body) {}
+}
@@ -16,6 +16,7 @@
 package org.example.gcp.slack.claude.handlers;
 
 import static org.example.gcp.slack.claude.common.Utils.channel;
+import static org.example.gcp.slack.claude.common.Utils.isAfter;
 import static org.example.gcp.slack.claude.common.Utils.removeMention;
 import static org.example.gcp.slack.claude.common.Utils.threadTs;
 import static org.example.gcp.slack.claude.common.Utils.toMessage;
@@ -109,4 +110,41 @@ public class SlackOperations {
             })
         .subscribeOn(Schedulers.boundedElastic());
   }
+
+  /**
+   * Retrieves the messages posted in a Slack thread after a given message, oldest first.
+   *
+   * @param ctx The Slack event context, used for accessing the Slack client.
+   * @param channelId The ID of the Slack channel.
+   * @param threadId The timestamp (ts) of the parent message in the thread.
+   * @param oldest The timestamp of the message after which the messages are retrieved.
+   * @return A {@link Mono} emitting the Slack messages, or an error if the retrieval failed.
+   */
+  public Mono<List<com.slack.api.model.Message>> repliesSince(
+      EventContext ctx, String channelId, String threadId, String oldest) {
+    return Mono.fromCallable(
+            () -> {
+              try {
+                var replies =
+                    ctx.client()
+                        .conversationsReplies(
+                            cr ->
+                                cr.channel(channelId)
+                                    .ts(threadId)
+                                    .oldest(oldest)
+                                    .inclusive(false)
+                                    .token(ctx.getBotToken()));
+                if (replies.isOk()) {
+                  return replies.getMessages().stream()
+                      // the parent message is always part of the replies
+                      .filter(msg -> isAfter(msg.getTs(), oldest))
+                      .toList();
+                }
+                throw new RuntimeException("Error retrieving replies: " + replies.getError());
+              } catch (SlackApiException | IOException ex) {
+                throw new RuntimeException("Error retrieving replies: ", ex);
+              }
+            })
+        .subscribeOn(Schedulers.boundedElastic());
+  }
 }
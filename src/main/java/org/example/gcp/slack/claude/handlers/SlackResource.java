@@ -20,56 +20,122 @@ import static org.example.gcp.slack.claude.common.Utils.processSlackRequest;
 
 import com.slack.api.bolt.App;
 import com.slack.api.bolt.util.SlackRequestParser;
+import java.util.Optional;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Mono;
 
 /**
  * Spring WebFlux functional endpoint for handling HTTP requests from Slack. This class receives
- * incoming requests, typically events or interactions from Slack, parses them using {@link
- * SlackRequestParser}, and then dispatches them to the Slack Bolt {@link App} for processing. It
- * then formulates an HTTP response.
+ * incoming requests, typically events or interactions from Slack, admits them through {@link
+ * SlackIngress}, parses the accepted ones using {@link SlackRequestParser}, and then dispatches
+ * them to the Slack Bolt {@link App} for processing. It then formulates an HTTP response.
  */
 @Component
 public class SlackResource {
   private final App slackApp;
   private final SlackRequestParser requestParser;
+  private final SlackIngress ingress;
+  private final int maxBodySize;
 
-  public SlackResource(App slackApp, SlackRequestParser requestParser) {
+  public SlackResource(
+      App slackApp,
+      SlackRequestParser requestParser,
+      SlackIngress ingress,
+      @Value("${spring.codec.max-in-memory-size:256KB}") DataSize maxBodySize) {
     this.slackApp = slackApp;
     this.requestParser = requestParser;
+    this.ingress = ingress;
+    this.maxBodySize = Math.toIntExact(maxBodySize.toBytes());
   }
 
   /**
    * Handles incoming HTTP POST requests from Slack, such as event subscriptions or interactive
-   * payloads. The method parses the Slack request, processes it using the Slack Bolt {@link App},
-   * and then wraps the Bolt app's response into a {@link ServerResponse}.
+   * payloads. The request body is kept as received buffers until the request is admitted: requests
+   * with an invalid signature are rejected and events not handled by the application are
+   * acknowledged right away. Bodies are limited to the configured codec's in memory size, larger
+   * ones get a 413 status response before being verified. Accepted requests are parsed, processed
+   * using the Slack Bolt {@link App}, and the Bolt app's response is wrapped into a {@link
+   * ServerResponse}.
    *
    * @param request The incoming {@link ServerRequest} from Slack.
    * @return A {@link Mono} of {@link ServerResponse} to be sent back to Slack. This will typically
-   *     be an acknowledgment response. In case of errors during processing, a 500 status response
-   *     is returned.
+   *     be an acknowledgment response. Requests with invalid signatures get a 401 status response
+   *     and in case of errors during processing, a 500 status response is returned.
    */
   public Mono<ServerResponse> chatInteraction(ServerRequest request) {
-    return request
-        .bodyToMono(String.class)
+    return DataBufferUtils.join(request.bodyToFlux(DataBuffer.class), maxBodySize)
+        .map(
+            body -> {
+              try {
+                return ingress.admit(request.headers().asHttpHeaders(), body);
+              } finally {
+                DataBufferUtils.release(body);
+              }
+            })
         .flatMap(
-            body ->
-                processSlackRequest(slackApp, parseSlackRequest(requestParser, request, body))
-                    .flatMap(
-                        response ->
-                            ServerResponse.ok()
-                                .contentType(MediaType.APPLICATION_JSON)
-                                .bodyValue(new SlackResponse(response.getBody())))
-                    .onErrorResume(
-                        ex ->
-                            ServerResponse.status(HttpStatusCode.valueOf(500))
-                                .bodyValue(new SlackResponse(ex.getMessage()))))
+            admission ->
+                switch (admission.verdict()) {
+                  case REJECTED -> ServerResponse.status(HttpStatus.UNAUTHORIZED).build();
+                  case IGNORED -> ServerResponse.ok().build();
+                  case ACCEPTED -> process(request, admission.body());
+                })
+        .onErrorResume(
+            DataBufferLimitException.class,
+            ex -> ServerResponse.status(HttpStatus.PAYLOAD_TOO_LARGE).build())
         .switchIfEmpty(ServerResponse.badRequest().build());
   }
 
+  Mono<ServerResponse> process(ServerRequest request, String body) {
+    return processSlackRequest(slackApp, parseSlackRequest(requestParser, request, body))
+        .flatMap(
+            response ->
+                ServerResponse.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(new SlackResponse(response.getBody())))
+        .onErrorResume(
+            ex ->
+                ServerResponse.status(HttpStatusCode.valueOf(500))
+                    .bodyValue(new SlackResponse(ex.getMessage())));
+  }
+
+  /**
+   * Handles the OAuth flow HTTP GET requests, which install the application in a Slack workspace:
+   * the install page request and the redirect after the user authorizes the application. Both are
+   * processed by the Slack Bolt {@link App}, whose response (usually a redirect or an HTML page) is
+   * relayed as is.
+   *
+   * @param request The incoming {@link ServerRequest} from the user's browser.
+   * @return A {@link Mono} of {@link ServerResponse} with the Bolt app's response.
+   */
+  public Mono<ServerResponse> oauthInteraction(ServerRequest request) {
+    return processSlackRequest(slackApp, parseSlackRequest(requestParser, request, ""))
+        .flatMap(
+            response ->
+                ServerResponse.status(response.getStatusCode())
+                    .headers(
+                        headers -> {
+                          Optional.ofNullable(response.getHeaders())
+                              .ifPresent(values -> values.forEach(headers::addAll));
+                          Optional.ofNullable(response.getContentType())
+                              .ifPresent(type -> headers.set(HttpHeaders.CONTENT_TYPE, type));
+                        })
+                    .bodyValue(Optional.ofNullable(response.getBody()).orElse("")))
+        .onErrorResume(
+            ex ->
+                ServerResponse.status(HttpStatusCode.valueOf(500))
+                    .bodyValue(new SlackResponse(ex.getMessage())));
+  }
+
   record SlackResponse(String content) {}
 }
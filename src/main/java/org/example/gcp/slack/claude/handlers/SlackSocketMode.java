@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.example.gcp.slack.claude.handlers;
+
+import static org.example.gcp.slack.claude.common.Utils.processSlackRequest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slack.api.Slack;
+import com.slack.api.bolt.App;
+import com.slack.api.bolt.request.RequestHeaders;
+import com.slack.api.bolt.request.builtin.EventRequest;
+import com.slack.api.methods.SlackApiException;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
+import org.springframework.web.reactive.socket.client.WebSocketClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+/**
+ * Slack Socket Mode ingestion, an alternative to receiving events through the HTTP {@code /chat}
+ * route. Keeps a persistent WebSocket connection with Slack, acknowledges every envelope as soon as
+ * it arrives and dispatches the contained events to the same Slack Bolt {@link App}, and so to the
+ * same {@link SlackEvent} handlers, used by {@link SlackResource}. The connection is
+ * re-established, with backoff, when Slack asks for it or when it fails. The backoff starts over
+ * once a connection gets established.
+ *
+ * <p>When a WebSocket URL is configured the connection goes directly there, skipping the {@code
+ * apps.connections.open} call, which is useful to feed events from a local stub.
+ */
+@Component
+@ConditionalOnProperty(name = "slack.mode", havingValue = "socket")
+public class SlackSocketMode implements SmartLifecycle {
+  private static final Logger LOG = LoggerFactory.getLogger(SlackSocketMode.class);
+
+  private final App slackApp;
+  private final ObjectMapper objectMapper;
+  private final String appToken;
+  private final String url;
+  private final Duration minBackoff;
+  private final Duration maxBackoff;
+  private final WebSocketClient client = new ReactorNettyWebSocketClient();
+  private volatile Disposable connection;
+
+  public SlackSocketMode(
+      App slackApp,
+      ObjectMapper objectMapper,
+      @Value("${slack.socket-mode.app-token}") String appToken,
+      @Value("${slack.socket-mode.url}") String url,
+      @Value("${slack.socket-mode.min-backoff}") Duration minBackoff,
+      @Value("${slack.socket-mode.max-backoff}") Duration maxBackoff) {
+    this.slackApp = slackApp;
+    this.objectMapper = objectMapper;
+    this.appToken = appToken;
+    this.url = url;
+    this.minBackoff = minBackoff;
+    this.maxBackoff = maxBackoff;
+  }
+
+  @Override
+  public void start() {
+    if (appToken.isBlank() && url.isBlank()) {
+      throw new IllegalStateException(
+          "Socket Mode needs either slack.socket-mode.app-token or slack.socket-mode.url.");
+    }
+    connection =
+        Flux.defer(this::session)
+            .retryWhen(
+                Retry.backoff(Long.MAX_VALUE, minBackoff)
+                    .maxBackoff(maxBackoff)
+                    // an established connection resets the backoff
+                    .transientErrors(true)
+                    .doBeforeRetry(
+                        signal ->
+                            LOG.warn(
+                                "Socket Mode connection failed, attempt {}. Reconnecting.",
+                                signal.totalRetriesInARow() + 1,
+                                signal.failure())))
+            // Slack closes connections periodically, a new one is opened each time
+            .repeatWhen(closed -> closed.delayElements(minBackoff))
+            .subscribe();
+  }
+
+  @Override
+  public void stop() {
+    if (connection != null) {
+      connection.dispose();
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return connection != null && !connection.isDisposed();
+  }
+
+  Mono<URI> openUrl() {
+    if (!url.isBlank()) {
+      return Mono.just(URI.create(url));
+    }
+    return Mono.fromCallable(
+            () -> {
+              try {
+                var open =
+                    Slack.getInstance().methods().appsConnectionsOpen(r -> r.token(appToken));
+                if (!open.isOk()) {
+                  throw new RuntimeException(
+                      "Problems opening a Socket Mode connection: " + open.getError());
+                }
+                return URI.create(open.getUrl());
+              } catch (IOException | SlackApiException ex) {
+                throw new RuntimeException("Problems opening a Socket Mode connection", ex);
+              }
+            })
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  Flux<Boolean> session() {
+    // emits once the connection is established, and completes when the connection closes
+    var established = Sinks.<Boolean>one();
+    return Flux.merge(
+        established.asMono(),
+        openUrl()
+            .flatMap(uri -> connect(uri, established))
+            .doFinally(__ -> established.tryEmitEmpty())
+            .then(Mono.<Boolean>empty()));
+  }
+
+  Mono<Void> connect(URI uri, Sinks.One<Boolean> established) {
+    return client.execute(
+        uri,
+        session -> {
+          LOG.info("Socket Mode connection established.");
+          established.tryEmitValue(true);
+          var acks = Sinks.many().unicast().<String>onBackpressureBuffer();
+          var inbound =
+              session
+                  .receive()
+                  .map(WebSocketMessage::getPayloadAsText)
+                  .flatMap(this::readEnvelope)
+                  // envelopes are acknowledged before being processed
+                  .doOnNext(envelope -> ack(acks, envelope))
+                  .takeUntil(envelope -> "disconnect".equals(envelope.path("type").asText()))
+                  .filter(envelope -> "events_api".equals(envelope.path("type").asText()))
+                  .flatMap(this::dispatch)
+                  .doFinally(__ -> acks.tryEmitComplete())
+                  .then();
+          return Mono.when(send(session, acks), inbound)
+              .doFinally(signal -> LOG.info("Socket Mode connection closed ({}).", signal));
+        });
+  }
+
+  Mono<Void> send(WebSocketSession session, Sinks.Many<String> acks) {
+    return session.send(acks.asFlux().map(session::textMessage));
+  }
+
+  Mono<JsonNode> readEnvelope(String text) {
+    try {
+      return Mono.just(objectMapper.readTree(text));
+    } catch (IOException ex) {
+      LOG.warn("Discarding malformed Socket Mode envelope.", ex);
+      return Mono.empty();
+    }
+  }
+
+  void ack(Sinks.Many<String> acks, JsonNode envelope) {
+    var envelopeId = envelope.path("envelope_id");
+    if (!envelopeId.isMissingNode()) {
+      acks.tryEmitNext(
+          objectMapper.createObjectNode().put("envelope_id", envelopeId.asText()).toString());
+    }
+  }
+
+  Mono<Boolean> dispatch(JsonNode envelope) {
+    return processSlackRequest(
+            slackApp,
+            new EventRequest(envelope.path("payload").toString(), new RequestHeaders(Map.of())))
+        .map(response -> response.getStatusCode() < 400)
+        .onErrorResume(
+            ex -> {
+              LOG.error("Problems processing Socket Mode event.", ex);
+              return Mono.just(false);
+            });
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.example.gcp.slack.claude.handlers;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Per-team partitions of the processing pipeline. Each Slack workspace gets its own concurrency
+ * limit, a bounded queue for the work waiting on it, and a request rate limit, so a busy workspace
+ * can not starve the others served by the same instance.
+ */
+@Component
+public class TeamPartitions {
+  private final Integer maxConcurrent;
+  private final Integer maxQueued;
+  private final Integer requestsPerMinute;
+  private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+
+  public TeamPartitions(
+      @Value("${slack.partitions.max-concurrent}") Integer maxConcurrent,
+      @Value("${slack.partitions.max-queued}") Integer maxQueued,
+      @Value("${slack.partitions.requests-per-minute}") Integer requestsPerMinute) {
+    this.maxConcurrent = maxConcurrent;
+    this.maxQueued = maxQueued;
+    this.requestsPerMinute = requestsPerMinute;
+  }
+
+  /**
+   * Runs the given work within the partition of a team. The work starts once the team has a free
+   * concurrency slot and the slot is released when the work terminates or gets cancelled.
+   *
+   * @param teamId The ID of the Slack team (workspace).
+   * @param work The work to run.
+   * @return A {@link Flux} with the results of the work, or an error if the team is over its rate
+   *     limit or has too much work waiting.
+   */
+  public <T> Flux<T> run(String teamId, Flux<T> work) {
+    var partition =
+        partitions.computeIfAbsent(Optional.ofNullable(teamId).orElse(""), __ -> new Partition());
+    return Flux.usingWhen(partition.acquire(), __ -> work, __ -> partition.release());
+  }
+
+  class Partition {
+    private final Deque<Waiter> waiting = new ArrayDeque<>();
+    private int active;
+    private double tokens = requestsPerMinute;
+    private long refilledAt = System.nanoTime();
+
+    Mono<Boolean> acquire() {
+      return Mono.create(
+          sink -> {
+            synchronized (this) {
+              if (!tryTakeToken()) {
+                sink.error(
+                    new RuntimeException(
+                        "Too many requests for this workspace, try again in a minute."));
+              } else if (active < maxConcurrent) {
+                active++;
+                sink.success(true);
+              } else if (waiting.size() >= maxQueued) {
+                sink.error(
+                    new RuntimeException(
+                        "Too many requests in progress for this workspace, try again later."));
+              } else {
+                var waiter = new Waiter(sink, new AtomicBoolean());
+                waiting.add(waiter);
+                sink.onCancel(
+                    () -> {
+                      boolean undelivered;
+                      synchronized (this) {
+                        undelivered = !waiting.remove(waiter) && waiter.granted().get();
+                      }
+                      // the slot was handed over after the cancellation, so it is never released
+                      if (undelivered) {
+                        handOver();
+                      }
+                    });
+              }
+            }
+          });
+    }
+
+    Mono<Void> release() {
+      return Mono.fromRunnable(this::handOver);
+    }
+
+    /**
+     * Hands the released slot over to the next waiter, if any. The slot is granted under the lock,
+     * and a waiter cancelled before the delivery hands it over again from its cancel callback.
+     */
+    void handOver() {
+      Waiter next;
+      synchronized (this) {
+        next = waiting.poll();
+        if (next == null) {
+          active--;
+        } else {
+          next.granted().set(true);
+        }
+      }
+      if (next != null) {
+        next.sink().success(true);
+      }
+    }
+
+    boolean tryTakeToken() {
+      var now = System.nanoTime();
+      tokens =
+          Math.min(
+              requestsPerMinute, tokens + (now - refilledAt) * requestsPerMinute / 60_000_000_000d);
+      refilledAt = now;
+      if (tokens < 1) {
+        return false;
+      }
+      tokens--;
+      return true;
+    }
+  }
+
+  record Waiter(MonoSink<Boolean> sink, AtomicBoolean granted) {}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2025 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.example.gcp.slack.claude.handlers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.example.gcp.slack.claude.handlers.SlackIngress.Verdict;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+class SlackIngressTest {
+  private static final String SECRET = "signing-secret";
+  private static final String MENTION =
+      """
+      {"type":"event_callback","event_id":"Ev1","event":{"type":"app_mention",\
+      "channel":"C1","ts":"1700000000.000100","text":"<@U1> hello"}}""";
+  private static final String BOT_MESSAGE =
+      """
+      {"type":"event_callback","event_id":"Ev2","event":{"type":"message","bot_id":"B1",\
+      "channel":"C1","thread_ts":"1700000000.000100","text":"hello"}}""";
+
+  private final SlackIngress ingress =
+      new SlackIngress(SECRET, new ObjectMapper(), new SimpleMeterRegistry());
+
+  static Stream<DataBufferFactory> factories() {
+    return Stream.of(
+        DefaultDataBufferFactory.sharedInstance,
+        new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT));
+  }
+
+  @ParameterizedTest
+  @MethodSource("factories")
+  void acceptedRequestsKeepTheirBody(DataBufferFactory factory) throws Exception {
+    var body = factory.wrap(MENTION.getBytes(StandardCharsets.UTF_8));
+
+    var admission = ingress.admit(signedHeaders(MENTION), body);
+
+    assertThat(admission.verdict()).isEqualTo(Verdict.ACCEPTED);
+    assertThat(admission.body()).isEqualTo(MENTION);
+  }
+
+  @ParameterizedTest
+  @MethodSource("factories")
+  void unhandledEventsAreIgnored(DataBufferFactory factory) throws Exception {
+    var body = factory.wrap(BOT_MESSAGE.getBytes(StandardCharsets.UTF_8));
+
+    var admission = ingress.admit(signedHeaders(BOT_MESSAGE), body);
+
+    assertThat(admission.verdict()).isEqualTo(Verdict.IGNORED);
+    assertThat(admission.body()).isNull();
+  }
+
+  @ParameterizedTest
+  @MethodSource("factories")
+  void tamperedRequestsAreRejected(DataBufferFactory factory) throws Exception {
+    var headers = signedHeaders(MENTION);
+    var body = factory.wrap(MENTION.replace("hello", "bye").getBytes(StandardCharsets.UTF_8));
+
+    var admission = ingress.admit(headers, body);
+
+    assertThat(admission.verdict()).isEqualTo(Verdict.REJECTED);
+    assertThat(admission.body()).isNull();
+  }
+
+  static HttpHeaders signedHeaders(String body) throws Exception {
+    var timestamp = String.valueOf(System.currentTimeMillis() / 1000);
+    var mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    var signature = mac.doFinal(("v0:" + timestamp + ":" + body).getBytes(StandardCharsets.UTF_8));
+    var headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.set("X-Slack-Request-Timestamp", timestamp);
+    headers.set("X-Slack-Signature", "v0=" + HexFormat.of().formatHex(signature));
+    return headers;
+  }
+}